@@ -1,16 +1,12 @@
 package info.kgeorgiy.ja.panov.bank;
 
-public abstract class AbstractAccount implements Account {
+import java.io.Serializable;
+
+public abstract class AbstractAccount implements Account, Serializable {
     private final String id;
-    private int amount;
 
     public AbstractAccount(final String id) {
-        this(id, 0);
-    }
-
-    protected AbstractAccount(final String id, final int amount) {
         this.id = id;
-        this.amount = amount;
     }
 
     @Override
@@ -18,18 +14,9 @@ public abstract class AbstractAccount implements Account {
         return id;
     }
 
-    @Override
-    public int getAmount() {
-        return amount;
-    }
-
-    @Override
-    public synchronized void setAmount(final int amount) {
-        this.amount = amount;
-    }
-
-    @Override
-    public synchronized void addAmount(final int amount) {
-        this.amount += amount;
+    protected static void checkWithdrawn(final long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Withdrawn amount should be non-negative");
+        }
     }
 }
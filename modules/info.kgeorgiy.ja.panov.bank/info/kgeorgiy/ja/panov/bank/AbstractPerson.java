@@ -1,9 +1,10 @@
 package info.kgeorgiy.ja.panov.bank;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.Map;
 
-public abstract class AbstractPerson implements Person {
+public abstract class AbstractPerson implements Person, Serializable {
     private final String name;
     private final String surname;
     private final String passport;
@@ -7,11 +7,18 @@ public interface Account extends Remote {
     String getId() throws RemoteException;
 
     /** Returns amount of money at the account. */
-    int getAmount() throws RemoteException;
+    long getAmount() throws RemoteException;
 
     /** Sets amount of money at the account. */
-    void setAmount(int amount) throws RemoteException;
+    void setAmount(long amount) throws RemoteException;
 
     /** Adds amount of money at the account. */
-    void addAmount(int amount) throws RemoteException;
+    void addAmount(long amount) throws RemoteException;
+
+    /**
+     * Takes non-negative amount of money from the account if there is enough money at it.
+     *
+     * @return {@code true} if money was taken, {@code false} if the account was left unchanged.
+     */
+    boolean withdraw(long amount) throws RemoteException;
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package info.kgeorgiy.ja.panov.bank;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface Bank extends Remote {
     Account createAccount(String subId, Person person) throws RemoteException;
@@ -14,6 +15,51 @@ public interface Bank extends Remote {
 
     Person getRemotePerson(String passport) throws RemoteException;
 
+    /**
+     * Moves non-negative amount of money between accounts with the specified identifiers,
+     * as {@link #transfer(List)} with a single transfer.
+     *
+     * @return {@code true} if money was moved, {@code false} if there is not enough money at the source account.
+     * @throws IllegalArgumentException if an account does not exist or the amount is negative.
+     */
+    boolean transfer(String fromId, String toId, long amount) throws RemoteException;
+
+    /**
+     * Applies all transfers as a whole: either every account gets its total change or none of them does.
+     * Only the total change of every account is checked, so money received by a leg may be sent by another one.
+     * <p>
+     * The transfer is atomic to concurrent operations of the bank: a concurrent change of an account
+     * is applied either before or after the whole transfer, and {@link #getAmounts} or a local person
+     * sees either all changes of the transfer or none of them. Separate {@link Account#getAmount()} calls
+     * are not a snapshot, so they may see one account changed and another one not yet.
+     *
+     * @return {@code true} if transfers were applied, {@code false} if some account has not enough money.
+     * @throws IllegalArgumentException if an account does not exist or an amount is negative.
+     */
+    boolean transfer(List<Transfer> transfers) throws RemoteException;
+
+    /**
+     * Creates accounts of a person in a single call, see {@link #createAccount(String, Person)}.
+     *
+     * @return identifiers of the accounts in the order of sub-identifiers.
+     */
+    String[] createAccounts(Person person, String[] subIds) throws RemoteException;
+
+    /**
+     * Returns amounts of money at accounts with the specified identifiers in a single call.
+     *
+     * @throws IllegalArgumentException if an account does not exist.
+     */
+    long[] getAmounts(String[] ids) throws RemoteException;
+
+    /**
+     * Adds {@code deltas[i]} to the account with identifier {@code ids[i]} for every {@code i} in a single call.
+     * Every delta is applied atomically, but other operations may see some of the deltas applied.
+     *
+     * @throws IllegalArgumentException if an account does not exist or the arrays have different lengths.
+     */
+    void addAmounts(String[] ids, long[] deltas) throws RemoteException;
+
     default Person createPersonIfAbsent(final String name, final String surname, final String passport)
             throws RemoteException {
         final Person person = getRemotePerson(passport);
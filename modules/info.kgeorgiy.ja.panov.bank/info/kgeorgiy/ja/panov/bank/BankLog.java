@@ -0,0 +1,457 @@
+package info.kgeorgiy.ja.panov.bank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of a {@link RemoteBank}.
+ * Every mutation is applied and appended as a single record under the log lock, so records are in the order
+ * of mutations and hold resulting balances, not deltas. The mutation returns after its record is synced.
+ * In group commit mode, the first waiting writer syncs records of all writers appended so far,
+ * while others keep appending the next group. Otherwise, every record is synced separately under the log lock.
+ * The log is split into segments, a snapshot is taken at a segment boundary without stopping writers and
+ * makes older segments unnecessary. The directory is synced after a segment is created and a snapshot is published,
+ * so neither is lost on a crash.
+ * Lock order is {@code io} before the log itself, except for the synchronous mode which syncs under the log lock.
+ */
+class BankLog implements Closeable {
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT_PREFIX = "log-";
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+    private static final byte PERSON = 1;
+    private static final byte ACCOUNT = 2;
+    private static final byte AMOUNT = 3;
+
+    private final Path directory;
+    private final boolean groupCommit;
+    private final Record record = new Record();
+    private final Record pending = new Record();
+    private final Queue<Batch> batches = new ArrayDeque<>();
+    private final Object io = new Object();
+    private final Object snapshots = new Object();
+    private long segment;
+    private long segmentSize;
+    private long appended;
+    private IOException failure;
+    private boolean closed;
+    private FileChannel channel;
+    private long channelSegment = -1;
+    private volatile long synced;
+
+    /**
+     * Mutation of a bank which appends its record if it changed anything.
+     */
+    @FunctionalInterface
+    interface Mutation<T> {
+        /**
+         * @param record record of the mutation or {@code null} if the mutation is not logged.
+         */
+        T apply(DataOutput record) throws IOException;
+    }
+
+    /**
+     * Receiver of recovered state, persons and accounts are received before their amounts.
+     */
+    interface Replay {
+        void person(String name, String surname, String passport) throws IOException;
+
+        void account(String passport, String subId) throws IOException;
+
+        void amount(String id, long amount) throws IOException;
+    }
+
+    BankLog(final Path directory, final boolean groupCommit) {
+        this.directory = directory;
+        this.groupCommit = groupCommit;
+    }
+
+    static void person(final DataOutput record, final String name, final String surname, final String passport)
+            throws IOException {
+        if (record != null) {
+            record.writeByte(PERSON);
+            record.writeUTF(name);
+            record.writeUTF(surname);
+            record.writeUTF(passport);
+        }
+    }
+
+    static void account(final DataOutput record, final String passport, final String subId) throws IOException {
+        if (record != null) {
+            record.writeByte(ACCOUNT);
+            record.writeUTF(passport);
+            record.writeUTF(subId);
+        }
+    }
+
+    static void amount(final DataOutput record, final AbstractAccount account) throws IOException {
+        if (record != null) {
+            record.writeByte(AMOUNT);
+            record.writeUTF(account.getId());
+            record.writeLong(account.getAmount());
+        }
+    }
+
+    /**
+     * Replays the snapshot and the log after it. Writing continues in a new segment,
+     * a partially written record at the end of the log is cut off.
+     *
+     * @throws IOException if the snapshot is corrupted, since the log before it is deleted.
+     */
+    void recover(final Replay replay) throws IOException {
+        Files.createDirectories(directory);
+        long from = 0;
+        final Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(snapshot))
+            )) {
+                from = in.readLong();
+                if (Long.BYTES + replayRecords(in, replay) < Files.size(snapshot)) {
+                    throw new IOException("Corrupted bank snapshot=[" + snapshot + "]");
+                }
+            }
+        }
+
+        final List<Long> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            final Path path = segmentPath(segments.get(i));
+            if (segments.get(i) < from) {
+                Files.delete(path);
+                continue;
+            }
+            final long valid = replaySegment(path, replay);
+            if (valid < Files.size(path)) {
+                if (i != segments.size() - 1) {
+                    throw new IOException("Corrupted bank log segment=[" + path + "]");
+                }
+                try (final FileChannel truncated = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    truncated.truncate(valid);
+                    truncated.force(true);
+                }
+            }
+        }
+        segment = segments.isEmpty() ? from : Math.max(from, segments.get(segments.size() - 1) + 1);
+    }
+
+    boolean isWriting() {
+        return Thread.holdsLock(this);
+    }
+
+    /**
+     * Applies the mutation and waits until its record is synced.
+     */
+    <T> T write(final Mutation<T> mutation) throws IOException {
+        final long position;
+        final T result;
+        synchronized (this) {
+            checkOpen();
+            record.reset();
+            result = mutation.apply(record.data);
+            if (record.size() == 0) {
+                return result;
+            }
+            segmentSize += record.frame(pending.data);
+            position = ++appended;
+            if (!groupCommit) {
+                sync(position);
+                return result;
+            }
+        }
+        sync(position);
+        return result;
+    }
+
+    /**
+     * Returns size of the log written since the last snapshot.
+     */
+    synchronized long size() {
+        return segmentSize;
+    }
+
+    /**
+     * Writes a snapshot of the persons and their accounts and deletes the log before it.
+     * Amounts are read while writers go on, every change after the start of the snapshot is
+     * in the log after it and is synced before the snapshot is published, so replay of the log
+     * after the snapshot brings every account to its latest state.
+     */
+    void snapshot(final Collection<? extends AbstractPerson> persons) throws IOException {
+        synchronized (snapshots) {
+            final long from = roll();
+            final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary))
+            )) {
+                out.writeLong(from);
+                final Record state = new Record();
+                for (final AbstractPerson person : persons) {
+                    state.reset();
+                    person(state.data, person.getName(), person.getSurname(), person.getPassport());
+                    for (final Map.Entry<String, Account> entry : person.getAccounts().entrySet()) {
+                        if (entry.getValue() instanceof RemoteAccount) {
+                            account(state.data, person.getPassport(), entry.getKey());
+                            amount(state.data, (RemoteAccount) entry.getValue());
+                        }
+                    }
+                    state.frame(out);
+                }
+            }
+            final long position;
+            synchronized (this) {
+                position = appended;
+            }
+            sync(position);
+            try (final FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                file.force(true);
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory();
+            for (final long old : segments()) {
+                if (old < from) {
+                    Files.delete(segmentPath(old));
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs appended records and closes the log, so later mutations and snapshots fail.
+     */
+    @Override
+    public void close() throws IOException {
+        final long position;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            position = appended;
+        }
+        try {
+            sync(position);
+        } finally {
+            synchronized (io) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                    channelSegment = -1;
+                }
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Bank log is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Bank log failed", failure);
+        }
+    }
+
+    private synchronized long roll() throws IOException {
+        checkOpen();
+        enqueuePending();
+        segmentSize = 0;
+        return ++segment;
+    }
+
+    private void enqueuePending() {
+        if (pending.size() > 0) {
+            batches.add(new Batch(segment, pending.toByteArray()));
+            pending.reset();
+        }
+    }
+
+    private void sync(final long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (io) {
+            if (synced < position) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes and syncs all appended records.
+     */
+    private void flush() throws IOException {
+        final List<Batch> flushed;
+        final long position;
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("Bank log failed", failure);
+            }
+            enqueuePending();
+            flushed = new ArrayList<>(batches);
+            batches.clear();
+            position = appended;
+        }
+        try {
+            for (final Batch batch : flushed) {
+                if (batch.segment != channelSegment) {
+                    if (channel != null) {
+                        channel.force(false);
+                        channel.close();
+                    }
+                    channel = FileChannel.open(segmentPath(batch.segment),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    channelSegment = batch.segment;
+                    syncDirectory();
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(batch.bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            if (channel != null) {
+                channel.force(false);
+            }
+        } catch (final IOException e) {
+            synchronized (this) {
+                failure = e;
+            }
+            throw e;
+        }
+        synced = position;
+    }
+
+    /**
+     * Syncs creation, rename and deletion of files in the log directory.
+     */
+    private void syncDirectory() throws IOException {
+        try (final FileChannel file = FileChannel.open(directory, StandardOpenOption.READ)) {
+            file.force(true);
+        } catch (final AccessDeniedException ignored) {
+            // directories cannot be opened on Windows, where file system metadata is journaled
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(final long segment) {
+        return directory.resolve(String.format("%s%016d", SEGMENT_PREFIX, segment));
+    }
+
+    /**
+     * Returns length of the valid prefix of the segment.
+     */
+    private static long replaySegment(final Path path, final Replay replay) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return replayRecords(in, replay);
+        }
+    }
+
+    /**
+     * Replays records up to the end of the stream or the first invalid record, returns length of the replayed ones.
+     */
+    private static long replayRecords(final DataInputStream in, final Replay replay) throws IOException {
+        long valid = 0;
+        for (int size; (size = replayRecord(in, replay)) >= 0; ) {
+            valid += Record.HEADER_SIZE + size;
+        }
+        return valid;
+    }
+
+    /**
+     * Returns size of the replayed record or {@code -1} at the end of valid records.
+     */
+    private static int replayRecord(final DataInputStream in, final Replay replay) throws IOException {
+        final byte[] payload;
+        try {
+            final int size = in.readInt();
+            final int checksum = in.readInt();
+            if (size <= 0 || size > MAX_RECORD_SIZE) {
+                return -1;
+            }
+            payload = in.readNBytes(size);
+            if (payload.length < size || Record.checksum(payload) != checksum) {
+                return -1;
+            }
+        } catch (final EOFException e) {
+            return -1;
+        }
+
+        final DataInputStream entries = new DataInputStream(new ByteArrayInputStream(payload));
+        while (entries.available() > 0) {
+            final byte type = entries.readByte();
+            switch (type) {
+                case PERSON -> replay.person(entries.readUTF(), entries.readUTF(), entries.readUTF());
+                case ACCOUNT -> replay.account(entries.readUTF(), entries.readUTF());
+                case AMOUNT -> replay.amount(entries.readUTF(), entries.readLong());
+                default -> throw new IOException("Unknown bank log entry=[" + type + "]");
+            }
+        }
+        return payload.length;
+    }
+
+    private static class Batch {
+        private final long segment;
+        private final byte[] bytes;
+
+        private Batch(final long segment, final byte[] bytes) {
+            this.segment = segment;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Buffer of a record or of framed records: size, CRC32 and the record itself.
+     */
+    private static class Record extends ByteArrayOutputStream {
+        private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        private int frame(final DataOutput out) throws IOException {
+            out.writeInt(count);
+            out.writeInt(checksum(buf, count));
+            out.write(buf, 0, count);
+            return HEADER_SIZE + count;
+        }
+
+        private static int checksum(final byte[] bytes) {
+            return checksum(bytes, bytes.length);
+        }
+
+        private static int checksum(final byte[] bytes, final int length) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            return (int) crc.getValue();
+        }
+    }
+}
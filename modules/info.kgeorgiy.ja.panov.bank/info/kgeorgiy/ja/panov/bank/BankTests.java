@@ -8,15 +8,25 @@ import org.junit.internal.TextListener;
 import org.junit.runner.JUnitCore;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class BankTests {
     private static final int BANK_PORT = 8080;
@@ -29,6 +39,8 @@ public class BankTests {
     private static final int THREADS = 20;
     private static final int ACTIONS_IN_THREAD = 20;
     private static final int AWAIT_TIME_MILLISECONDS = 10_000;
+    private static final long BENCHMARK_MILLISECONDS = 3_000;
+    private static final int[] BENCHMARK_THREADS = {1, 16};
 
     private static Bank bank;
     private static Registry registry;
@@ -187,6 +199,358 @@ public class BankTests {
         Assert.assertEquals(account.getAmount(), THREADS * ACTIONS_IN_THREAD * AMOUNT);
     }
 
+    @Test
+    public void test_amountBeyondInt() throws RemoteException {
+        final Account account = createDefaultAccount();
+        account.setAmount(Integer.MAX_VALUE);
+        account.addAmount(Integer.MAX_VALUE);
+
+        Assert.assertEquals(2L * Integer.MAX_VALUE, account.getAmount());
+    }
+
+    @Test
+    public void test_withdraw() throws RemoteException {
+        final Account account = createDefaultAccount();
+        account.setAmount(AMOUNT);
+
+        Assert.assertFalse(account.withdraw(AMOUNT + 1));
+        Assert.assertEquals(AMOUNT, account.getAmount());
+        Assert.assertTrue(account.withdraw(AMOUNT));
+        Assert.assertEquals(0, account.getAmount());
+    }
+
+    @Test
+    public void test_parallelWithdraw() throws RemoteException {
+        final Account account = createDefaultAccount();
+        final int available = THREADS * ACTIONS_IN_THREAD / 2;
+        account.setAmount(available * AMOUNT);
+        final AtomicInteger withdrawn = new AtomicInteger();
+        parallelTest(THREADS, ACTIONS_IN_THREAD, (a, b) -> {
+            if (account.withdraw(AMOUNT)) {
+                withdrawn.incrementAndGet();
+            }
+        });
+
+        Assert.assertEquals(available, withdrawn.get());
+        Assert.assertEquals(0, account.getAmount());
+    }
+
+    private Account[] createAccounts(final int count, final long amount) throws RemoteException {
+        final Person person = bank.createPerson(NAME, SURNAME, PASSPORT);
+        final Account[] accounts = new Account[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = bank.createAccount(SUB_ID + i, person);
+            accounts[i].setAmount(amount);
+        }
+        return accounts;
+    }
+
+    @Test
+    public void test_transfer() throws RemoteException {
+        final Account[] accounts = createAccounts(2, AMOUNT);
+
+        Assert.assertTrue(bank.transfer(accounts[0].getId(), accounts[1].getId(), AMOUNT));
+        Assert.assertEquals(0, accounts[0].getAmount());
+        Assert.assertEquals(2 * AMOUNT, accounts[1].getAmount());
+        Assert.assertFalse(bank.transfer(accounts[0].getId(), accounts[1].getId(), 1));
+        Assert.assertEquals(0, accounts[0].getAmount());
+        Assert.assertEquals(2 * AMOUNT, accounts[1].getAmount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_transferToMissingAccount() throws RemoteException {
+        final Account[] accounts = createAccounts(1, AMOUNT);
+        bank.transfer(accounts[0].getId(), PASSPORT + ":missing", 1);
+    }
+
+    @Test
+    public void test_multiLegTransfer() throws RemoteException {
+        final Account[] accounts = createAccounts(3, 0);
+        accounts[0].setAmount(AMOUNT);
+
+        Assert.assertTrue(bank.transfer(List.of(
+                new Transfer(accounts[0].getId(), accounts[1].getId(), AMOUNT),
+                new Transfer(accounts[1].getId(), accounts[2].getId(), AMOUNT)
+        )));
+        Assert.assertEquals(0, accounts[0].getAmount());
+        Assert.assertEquals(0, accounts[1].getAmount());
+        Assert.assertEquals(AMOUNT, accounts[2].getAmount());
+
+        Assert.assertFalse(bank.transfer(List.of(
+                new Transfer(accounts[2].getId(), accounts[0].getId(), AMOUNT),
+                new Transfer(accounts[1].getId(), accounts[0].getId(), 1)
+        )));
+        Assert.assertEquals(0, accounts[0].getAmount());
+        Assert.assertEquals(0, accounts[1].getAmount());
+        Assert.assertEquals(AMOUNT, accounts[2].getAmount());
+    }
+
+    @Test
+    public void test_parallelTransfers() throws RemoteException {
+        final Account[] accounts = createAccounts(5, AMOUNT);
+        parallelTest(THREADS, ACTIONS_IN_THREAD, (threadNum, actionNum) -> {
+            final Account from = accounts[(threadNum + actionNum) % accounts.length];
+            final Account to = accounts[(threadNum * 3 + actionNum + 1) % accounts.length];
+            bank.transfer(List.of(
+                    new Transfer(from.getId(), to.getId(), actionNum % 7),
+                    new Transfer(to.getId(), accounts[threadNum % accounts.length].getId(), threadNum % 5)
+            ));
+        });
+
+        long total = 0;
+        for (final Account account : accounts) {
+            Assert.assertTrue(account.getAmount() >= 0);
+            total += account.getAmount();
+        }
+        Assert.assertEquals(accounts.length * AMOUNT, total);
+    }
+
+    @Test
+    public void test_consistentLocalPerson() throws RemoteException {
+        final Account[] accounts = createAccounts(10, AMOUNT);
+        final AtomicInteger inconsistent = new AtomicInteger();
+        parallelTest(THREADS, ACTIONS_IN_THREAD, (threadNum, actionNum) -> {
+            if (threadNum % 2 == 0) {
+                final Account from = accounts[(threadNum + actionNum) % accounts.length];
+                final Account to = accounts[(threadNum + actionNum + 1) % accounts.length];
+                bank.transfer(from.getId(), to.getId(), actionNum % AMOUNT);
+                bank.addAmounts(new String[]{to.getId(), from.getId()}, new long[]{-1, 1});
+            } else {
+                long total = 0;
+                for (final Account account : bank.getLocalPerson(PASSPORT).getAccounts().values()) {
+                    total += account.getAmount();
+                }
+                if (total != accounts.length * AMOUNT) {
+                    inconsistent.incrementAndGet();
+                }
+            }
+        });
+
+        Assert.assertEquals(0, inconsistent.get());
+    }
+
+    @Test
+    public void test_localPersonSerializable() throws IOException, ClassNotFoundException {
+        final Account account = createDefaultAccount();
+        account.setAmount(AMOUNT);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(bank.getLocalPerson(PASSPORT));
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final Person person = (Person) in.readObject();
+            assertEqualsPerson(bank.getRemotePerson(PASSPORT), person);
+            Assert.assertEquals(AMOUNT, person.getAccount(SUB_ID).getAmount());
+        }
+    }
+
+    @Test
+    public void test_exportOnDemand() throws IOException, ClassNotFoundException {
+        final Account account = createDefaultAccount();
+        try {
+            RemoteObject.toStub(account);
+            Assert.fail("Account should not be exported before it is sent to a client");
+        } catch (final NoSuchObjectException ignored) {
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(account);
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final Account stub = (Account) in.readObject();
+            Assert.assertEquals(RemoteObject.toStub(account), stub);
+            stub.addAmount(AMOUNT);
+            Assert.assertEquals(AMOUNT, account.getAmount());
+        }
+    }
+
+    @Test
+    public void test_batchOperations() throws RemoteException {
+        final Person person = bank.createPerson(NAME, SURNAME, PASSPORT);
+        final String[] subIds = IntStream.range(0, 100).mapToObj(i -> SUB_ID + i).toArray(String[]::new);
+        final String[] ids = bank.createAccounts(person, subIds);
+        final long[] deltas = IntStream.range(0, ids.length).mapToLong(i -> i * AMOUNT).toArray();
+
+        bank.addAmounts(ids, deltas);
+        bank.addAmounts(ids, deltas);
+
+        final long[] amounts = bank.getAmounts(ids);
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(PASSPORT + ":" + subIds[i], ids[i]);
+            Assert.assertEquals(2 * deltas[i], amounts[i]);
+            Assert.assertEquals(amounts[i], bank.getRemotePerson(PASSPORT).getAccount(subIds[i]).getAmount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_batchOfDifferentLengths() throws RemoteException {
+        final Account account = createDefaultAccount();
+        bank.addAmounts(new String[]{account.getId()}, new long[]{AMOUNT, AMOUNT});
+    }
+
+    private interface PersistentTest {
+        void run(Path directory) throws IOException;
+    }
+
+    private static void persistentTest(final PersistentTest test) throws IOException {
+        final Path directory = Files.createTempDirectory("bank");
+        try {
+            test.run(directory);
+        } finally {
+            try (final Stream<Path> files = Files.walk(directory)) {
+                for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static String[] fillPersistentBank(final RemoteBank persistent) throws RemoteException {
+        final Person person = persistent.createPerson(NAME, SURNAME, PASSPORT);
+        final String[] ids = persistent.createAccounts(person, new String[]{"a", "b", "c"});
+        persistent.getAccount(ids[0]).setAmount(2 * AMOUNT);
+        persistent.getAccount(ids[1]).addAmount(AMOUNT);
+        Assert.assertTrue(persistent.transfer(ids[0], ids[2], AMOUNT));
+        Assert.assertTrue(persistent.getAccount(ids[1]).withdraw(1));
+        persistent.addAmounts(new String[]{ids[2]}, new long[]{5});
+        return ids;
+    }
+
+    private void assertRecovered(final RemoteBank recovered, final String[] ids) throws RemoteException {
+        assertEqualsPerson(bank.createPerson(NAME, SURNAME, PASSPORT), recovered.getRemotePerson(PASSPORT));
+        Assert.assertArrayEquals(new long[]{AMOUNT, AMOUNT - 1, AMOUNT + 5}, recovered.getAmounts(ids));
+        Assert.assertEquals(ids[1], recovered.getRemotePerson(PASSPORT).getAccount("b").getId());
+    }
+
+    @Test
+    public void test_persistentRecovery() throws IOException {
+        persistentTest(directory -> {
+            final String[] ids;
+            try (final RemoteBank persistent = new RemoteBank(BANK_PORT, directory, false)) {
+                ids = fillPersistentBank(persistent);
+            }
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                assertRecovered(recovered, ids);
+            }
+        });
+    }
+
+    @Test
+    public void test_persistentSnapshot() throws IOException {
+        persistentTest(directory -> {
+            final String[] ids;
+            try (final RemoteBank persistent = new RemoteBank(BANK_PORT, directory)) {
+                ids = fillPersistentBank(persistent);
+                persistent.snapshot();
+                persistent.getAccount(ids[0]).addAmount(AMOUNT);
+                persistent.snapshot();
+                persistent.getAccount(ids[0]).addAmount(-AMOUNT);
+            }
+            try (final Stream<Path> files = Files.list(directory)) {
+                Assert.assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("log-")).count());
+            }
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                assertRecovered(recovered, ids);
+            }
+        });
+    }
+
+    @Test
+    public void test_persistentTornTail() throws IOException {
+        persistentTest(directory -> {
+            final String[] ids;
+            try (final RemoteBank persistent = new RemoteBank(BANK_PORT, directory)) {
+                ids = fillPersistentBank(persistent);
+            }
+            final Path last;
+            try (final Stream<Path> files = Files.list(directory)) {
+                last = files.max(Comparator.naturalOrder()).orElseThrow();
+            }
+            Files.write(last, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                assertRecovered(recovered, ids);
+                recovered.getAccount(ids[0]).addAmount(AMOUNT);
+                recovered.getAccount(ids[0]).addAmount(-AMOUNT);
+            }
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                assertRecovered(recovered, ids);
+            }
+        });
+    }
+
+    @Test
+    public void test_persistentCorruptedSnapshot() throws IOException {
+        persistentTest(directory -> {
+            try (final RemoteBank persistent = new RemoteBank(BANK_PORT, directory)) {
+                fillPersistentBank(persistent);
+                persistent.snapshot();
+            }
+            final Path snapshot = directory.resolve("snapshot");
+            final byte[] bytes = Files.readAllBytes(snapshot);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(snapshot, bytes);
+
+            try {
+                new RemoteBank(BANK_PORT, directory).close();
+                Assert.fail("Bank should not be recovered from corrupted snapshot");
+            } catch (final IOException ignored) {
+            }
+        });
+    }
+
+    @Test
+    public void test_persistentClosed() throws IOException {
+        persistentTest(directory -> {
+            final RemoteBank persistent = new RemoteBank(BANK_PORT, directory);
+            final String[] ids = fillPersistentBank(persistent);
+            final Account account = persistent.getAccount(ids[0]);
+            persistent.close();
+            try {
+                RemoteObject.toStub(persistent);
+                Assert.fail("Closed bank should not be exported");
+            } catch (final NoSuchObjectException ignored) {
+            }
+            try {
+                persistent.createPerson(NAME, SURNAME, PASSPORT + "_");
+                Assert.fail("Closed bank should not be changed");
+            } catch (final RemoteException ignored) {
+            }
+            try {
+                account.addAmount(AMOUNT);
+                Assert.fail("Account of closed bank should not be changed");
+            } catch (final UncheckedIOException ignored) {
+            }
+            try {
+                persistent.snapshot();
+                Assert.fail("Snapshot of closed bank should not be taken");
+            } catch (final IOException ignored) {
+            }
+            persistent.close();
+
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                assertRecovered(recovered, ids);
+            }
+        });
+    }
+
+    @Test
+    public void test_parallelPersistentAdd() throws IOException {
+        persistentTest(directory -> {
+            final String id;
+            try (final RemoteBank persistent = new RemoteBank(BANK_PORT, directory)) {
+                final Account account = persistent.createAccount(SUB_ID, persistent.createPerson(NAME, SURNAME, PASSPORT));
+                id = account.getId();
+                parallelTest(THREADS, ACTIONS_IN_THREAD, (a, b) -> account.addAmount(AMOUNT));
+            }
+            try (final RemoteBank recovered = new RemoteBank(BANK_PORT, directory)) {
+                Assert.assertEquals(THREADS * ACTIONS_IN_THREAD * AMOUNT, recovered.getAccount(id).getAmount());
+            }
+        });
+    }
+
     @Test
     public void test_parallelCreatePersons() throws RemoteException {
         parallelTest(THREADS, ACTIONS_IN_THREAD, (threadNum, actionNum) -> {
@@ -219,7 +583,78 @@ public class BankTests {
         Assert.assertEquals(person.getPassport(), PASSPORT);
     }
 
+    /**
+     * Returns number of {@code addAmount} calls per second made over RMI by the specified number of threads,
+     * every thread changes its own account.
+     */
+    private static double benchmarkAddAmount(final RemoteBank remoteBank, final int threads)
+            throws RemoteException, InterruptedException {
+        final Bank stub = (Bank) RemoteObject.toStub(remoteBank);
+        final Person person = stub.createPerson(NAME, SURNAME, PASSPORT);
+        final AtomicLong calls = new AtomicLong();
+        final AtomicReference<RemoteException> atomicException = new AtomicReference<>(null);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BENCHMARK_MILLISECONDS);
+        for (int threadNum = 0; threadNum < threads; threadNum++) {
+            final Account account = stub.createAccount(SUB_ID + threadNum, person);
+            pool.submit(() -> {
+                try {
+                    long accountCalls = 0;
+                    for (; System.nanoTime() < end; accountCalls++) {
+                        account.addAmount(AMOUNT);
+                    }
+                    calls.addAndGet(accountCalls);
+                } catch (RemoteException e) {
+                    atomicException.compareAndSet(null, e);
+                }
+            });
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(AWAIT_TIME_MILLISECONDS + BENCHMARK_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+            pool.shutdownNow();
+        }
+        if (atomicException.get() != null) {
+            throw atomicException.get();
+        }
+        return calls.get() * 1000.0 / BENCHMARK_MILLISECONDS;
+    }
+
+    /**
+     * Compares throughput of in-memory and persistent banks over RMI, banks are exported to anonymous ports.
+     */
+    private static void benchmarkPersistence() throws IOException, InterruptedException {
+        for (final int threads : BENCHMARK_THREADS) {
+            final double memory;
+            try (final RemoteBank remoteBank = new RemoteBank(0)) {
+                memory = benchmarkAddAmount(remoteBank, threads);
+            }
+            final double[] persistent = new double[1];
+            persistentTest(directory -> {
+                try (final RemoteBank remoteBank = new RemoteBank(0, directory)) {
+                    persistent[0] = benchmarkAddAmount(remoteBank, threads);
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+            });
+            System.out.printf(
+                    "threads=%d: in-memory %.0f calls/s, persistent %.0f calls/s, %.1fx slower%n",
+                    threads, memory, persistent[0], memory / persistent[0]
+            );
+        }
+    }
+
+    /**
+     * Runs the tests, or the benchmark of persistence if the first argument is {@code -bench}.
+     */
     public static void main(String[] args) {
+        if (args.length > 0 && "-bench".equals(args[0])) {
+            try {
+                benchmarkPersistence();
+            } catch (final IOException | InterruptedException e) {
+                System.err.println("Benchmark failed=[" + e.getMessage() + "]");
+            }
+            System.exit(0);
+        }
         JUnitCore junit = new JUnitCore();
         junit.addListener(new TextListener(System.out));
         junit.run(BankTests.class);
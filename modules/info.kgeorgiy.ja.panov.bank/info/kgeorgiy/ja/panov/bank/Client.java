@@ -15,9 +15,9 @@ public final class Client {
             return;
         }
 
-        final int diffAmount;
+        final long diffAmount;
         try {
-            diffAmount = Integer.parseInt(args[4]);
+            diffAmount = Long.parseLong(args[4]);
         } catch (NumberFormatException e) {
             System.err.println("Difference of invoice amount should be integer=[" + e.getMessage() + "]");
             return;
@@ -38,7 +38,7 @@ public final class Client {
 
         final Person person = bank.createPersonIfAbsent(name, surname, passport);
         final Account account = bank.createAccount(subId, person);
-        account.setAmount(account.getAmount() + diffAmount);
+        account.addAmount(diffAmount);
         System.out.println("Amount after transaction: " + account.getAmount());
     }
 }
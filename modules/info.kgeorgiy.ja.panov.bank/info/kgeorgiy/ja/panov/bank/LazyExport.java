@@ -0,0 +1,74 @@
+package info.kgeorgiy.ja.panov.bank;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Export of persons and accounts of a bank on demand. An object is exported when it is first marshalled
+ * to a client, from its {@code writeReplace}, and unexported when RMI reports that no client holds its stub.
+ * Unexport is delayed and cancelled if the object is marshalled meanwhile, since a client which has just
+ * received the stub is not counted by RMI until its first lease request.
+ */
+final class LazyExport {
+    private static final long UNEXPORT_DELAY_SECONDS = 30;
+    private static final ScheduledExecutorService UNEXPORTS = Executors.newSingleThreadScheduledExecutor(task -> {
+        final Thread thread = new Thread(task, "bank-unexports");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LazyExport() {
+    }
+
+    /**
+     * Returns stub of the object, exporting it if needed. Called under the lock of the object.
+     */
+    static Remote stub(final Remote object, final int port) throws ObjectStreamException {
+        try {
+            return RemoteObject.toStub(object);
+        } catch (final NoSuchObjectException ignored) {
+            try {
+                return UnicastRemoteObject.exportObject(object, port);
+            } catch (final RemoteException e) {
+                final InvalidObjectException exception = new InvalidObjectException("Cannot export object");
+                exception.initCause(e);
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Unexports the object later unless it is marshalled again.
+     *
+     * @param marshals number of times the object was marshalled, read under the lock of the object.
+     */
+    static void unreferenced(final Remote object, final IntSupplier marshals) {
+        final int seen;
+        synchronized (object) {
+            seen = marshals.getAsInt();
+        }
+        UNEXPORTS.schedule(() -> {
+            synchronized (object) {
+                if (marshals.getAsInt() != seen) {
+                    return;
+                }
+                try {
+                    if (!UnicastRemoteObject.unexportObject(object, false)) {
+                        unreferenced(object, marshals);
+                    }
+                } catch (final NoSuchObjectException ignored) {
+                    // already unexported
+                }
+            }
+        }, UNEXPORT_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+}
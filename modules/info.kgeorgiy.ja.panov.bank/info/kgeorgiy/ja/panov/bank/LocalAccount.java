@@ -1,11 +1,45 @@
 package info.kgeorgiy.ja.panov.bank;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class LocalAccount extends AbstractAccount {
+    private final AtomicLong amount;
+
     public LocalAccount(final String id) {
+        this(id, 0);
+    }
+
+    public LocalAccount(final String id, final long amount) {
         super(id);
+        this.amount = new AtomicLong(amount);
+    }
+
+    @Override
+    public long getAmount() {
+        return amount.get();
+    }
+
+    @Override
+    public void setAmount(final long amount) {
+        this.amount.set(amount);
+    }
+
+    @Override
+    public void addAmount(final long amount) {
+        this.amount.addAndGet(amount);
     }
 
-    public LocalAccount(final String id, final int amount) {
-        super(id, amount);
+    @Override
+    public boolean withdraw(final long amount) {
+        checkWithdrawn(amount);
+        long current = this.amount.get();
+        while (current >= amount) {
+            final long witness = this.amount.compareAndExchange(current, current - amount);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
+        }
+        return false;
     }
 }
@@ -1,11 +1,359 @@
 package info.kgeorgiy.ja.panov.bank;
 
-import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.rmi.server.Unreferenced;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
 
-public class RemoteAccount extends AbstractAccount {
-    public RemoteAccount(final String id, final int port) throws RemoteException {
+/**
+ * Account with versioned amount. Every change commits a new version stamped by the {@link VersionClock} of the bank,
+ * a change of several accounts installs uncommitted versions of them and commits all of them with the same stamp.
+ * The account is exported only while clients hold its stub, see {@link LazyExport}.
+ */
+public class RemoteAccount extends AbstractAccount implements Unreferenced {
+    private static final long PENDING = -1;
+    private static final long ABORTED = -2;
+    private static final int SPINS = 64;
+    private static final Comparator<Map.Entry<RemoteAccount, Long>> BY_ID =
+            Map.Entry.comparingByKey(Comparator.comparing(AbstractAccount::getId));
+    private static final VarHandle HEAD;
+    private static final VarHandle STAMP;
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(RemoteAccount.class, "head", Version.class);
+            STAMP = lookup.findVarHandle(Version.class, "stamp", long.class);
+            STATE = lookup.findVarHandle(Commit.class, "state", long.class);
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int port;
+    private final BankLog log;
+    private final VersionClock versions;
+    private volatile Version head = new Version(0, 0, null);
+    private int marshals;
+
+    public RemoteAccount(final String id, final int port) {
+        this(id, port, null, new VersionClock());
+    }
+
+    /**
+     * @param log      log of mutations of the account, {@code null} if the account is not persistent.
+     * @param versions clock shared by accounts of the bank.
+     */
+    RemoteAccount(final String id, final int port, final BankLog log, final VersionClock versions) {
         super(id);
-        UnicastRemoteObject.exportObject(this, port);
+        this.port = port;
+        this.log = log;
+        this.versions = versions;
+    }
+
+    @Override
+    public long getAmount() {
+        Version version = head;
+        while (version.stamp() < 0) {
+            version = version.previous;
+        }
+        return version.amount;
+    }
+
+    @Override
+    public void setAmount(final long amount) {
+        if (log == null) {
+            set(amount);
+            return;
+        }
+        write(record -> {
+            set(amount);
+            BankLog.amount(record, this);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAmount(final long amount) {
+        if (log == null) {
+            add(amount);
+            return;
+        }
+        write(record -> {
+            add(amount);
+            BankLog.amount(record, this);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean withdraw(final long amount) {
+        checkWithdrawn(amount);
+        if (log == null) {
+            return take(amount);
+        }
+        return write(record -> {
+            if (!take(amount)) {
+                return false;
+            }
+            BankLog.amount(record, this);
+            return true;
+        });
+    }
+
+    /**
+     * Sets recovered amount without logging it.
+     */
+    void restore(final long amount) {
+        set(amount);
+    }
+
+    /**
+     * Returns amount of the latest version committed before the snapshot. A concurrent change
+     * of several accounts is never waited for: if it is not committed yet, it is committed after the snapshot.
+     */
+    long getAmount(final VersionClock.Snapshot snapshot) {
+        final long time = snapshot.time();
+        for (Version version = head; version != null; version = version.previous) {
+            final long stamp = version.stamp();
+            if (stamp >= 0 ? stamp <= time : ((Pending) version).commit.isCommittedBy(time)) {
+                return version.amount;
+            }
+        }
+        throw new IllegalStateException("Version of account is not kept for snapshot=[" + getId() + "]");
+    }
+
+    /**
+     * Adds the changes to the accounts, so that a snapshot sees all of them or none. Accounts are changed
+     * in order of their ids, so concurrent changes waiting for uncommitted versions of each other cannot deadlock.
+     * If the change is not applied, its installed versions are removed and its commit is aborted,
+     * so changes waiting for them go on.
+     *
+     * @param checked if {@code true}, nothing is changed when an account with negative change has not enough money.
+     */
+    static boolean apply(final Map<RemoteAccount, Long> changes, final boolean checked) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Map.Entry<RemoteAccount, Long>[] ordered = changes.entrySet().toArray(new Map.Entry[changes.size()]);
+        Arrays.sort(ordered, BY_ID);
+        final Commit commit = new Commit();
+        final Version[] installed = new Version[ordered.length];
+        int count = 0;
+        boolean committed = false;
+        try {
+            for (; count < installed.length; count++) {
+                final RemoteAccount account = ordered[count].getKey();
+                final long change = ordered[count].getValue();
+                Version latest;
+                Version version;
+                do {
+                    latest = account.latest();
+                    if (checked && change < 0 && latest.amount < -change) {
+                        return false;
+                    }
+                    version = new Pending(latest.amount + change, latest, commit);
+                } while (!account.install(latest, version));
+                installed[count] = version;
+            }
+            if (count > 0) {
+                final long stamp = commit.commit(ordered[0].getKey().versions);
+                committed = true;
+                for (final Version version : installed) {
+                    STAMP.setRelease(version, stamp);
+                }
+            }
+            return true;
+        } finally {
+            if (!committed) {
+                for (int i = count - 1; i >= 0; i--) {
+                    ordered[i].getKey().head = installed[i].previous;
+                }
+                commit.abort();
+            }
+        }
+    }
+
+    private void set(final long amount) {
+        Version latest;
+        do {
+            latest = latest();
+        } while (!commit(latest, amount));
+    }
+
+    private void add(final long amount) {
+        Version latest;
+        do {
+            latest = latest();
+        } while (!commit(latest, latest.amount + amount));
+    }
+
+    private boolean take(final long amount) {
+        Version latest;
+        do {
+            latest = latest();
+            if (latest.amount < amount) {
+                return false;
+            }
+        } while (!commit(latest, latest.amount - amount));
+        return true;
+    }
+
+    /**
+     * Returns the latest version, waiting for an uncommitted one to commit or abort.
+     */
+    private Version latest() {
+        for (int spins = 0; ; spins++) {
+            final Version version = head;
+            if (version.stamp() >= 0) {
+                return version;
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Installs a committed version, keeping the latest one only if an open snapshot may need it.
+     */
+    private boolean commit(final Version latest, final long amount) {
+        final long stamp = versions.time();
+        final long oldest = versions.oldest();
+        prune(latest, oldest);
+        return HEAD.compareAndSet(this, latest, new Version(amount, stamp, oldest >= stamp ? null : latest));
+    }
+
+    private boolean install(final Version latest, final Version version) {
+        prune(latest, versions.oldest());
+        return HEAD.compareAndSet(this, latest, version);
+    }
+
+    /**
+     * Drops versions older than the latest one if no open snapshot started before it.
+     * Links between dropped versions are cut too, so a dropped version promoted to the old generation
+     * does not keep younger ones alive.
+     */
+    private static void prune(final Version latest, final long oldest) {
+        if (latest.previous != null && oldest >= latest.stamp) {
+            Version version = latest;
+            while (version != null) {
+                final Version previous = version.previous;
+                version.previous = null;
+                version = previous;
+            }
+        }
+    }
+
+    /**
+     * Sends the stub instead of the account, exporting the account on its first remote access.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        synchronized (this) {
+            marshals++;
+            return LazyExport.stub(this, port);
+        }
+    }
+
+    @Override
+    public void unreferenced() {
+        LazyExport.unreferenced(this, () -> marshals);
+    }
+
+    /**
+     * Logs the mutation unless it is a part of a mutation already being logged, like a transfer.
+     */
+    private <T> T write(final BankLog.Mutation<T> mutation) {
+        try {
+            return log.isWriting() ? mutation.apply(null) : log.write(mutation);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Bank log cannot be written", e);
+        }
+    }
+
+    /**
+     * Version of amount. Its stamp is published with the version,
+     * a {@link Pending} version gets the stamp of its commit once it is committed.
+     */
+    private static class Version {
+        private final long amount;
+        private long stamp;
+        private Version previous;
+
+        private Version(final long amount, final long stamp, final Version previous) {
+            this.amount = amount;
+            this.stamp = stamp;
+            this.previous = previous;
+        }
+
+        private long stamp() {
+            return (long) STAMP.getAcquire(this);
+        }
+    }
+
+    private static class Pending extends Version {
+        private final Commit commit;
+
+        private Pending(final long amount, final Version previous, final Commit commit) {
+            super(amount, PENDING, previous);
+            this.commit = commit;
+        }
+    }
+
+    /**
+     * Commit of a change of several accounts. Its state is the commit stamp, {@link #PENDING}, {@link #ABORTED}
+     * or a deferral by a snapshot which has not seen the change, so the change is committed after the snapshot.
+     */
+    private static class Commit {
+        private long state = PENDING;
+
+        /**
+         * Returns whether the change is committed not after the time, deferring the commit after the time otherwise.
+         */
+        private boolean isCommittedBy(final long time) {
+            while (true) {
+                final long state = (long) STATE.getAcquire(this);
+                if (state >= 0) {
+                    return state <= time;
+                }
+                if (state == ABORTED || state != PENDING && deferredAfter(state) >= time) {
+                    return false;
+                }
+                if (STATE.compareAndSet(this, state, deferred(time))) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Stamps the commit with the current time, which is after every snapshot that deferred it.
+         */
+        private long commit(final VersionClock versions) {
+            while (true) {
+                final long state = (long) STATE.getAcquire(this);
+                final long stamp = versions.time();
+                if (STATE.compareAndSet(this, state, stamp)) {
+                    return stamp;
+                }
+            }
+        }
+
+        private void abort() {
+            STATE.setRelease(this, ABORTED);
+        }
+
+        private static long deferred(final long time) {
+            return -3 - time;
+        }
+
+        private static long deferredAfter(final long state) {
+            return -3 - state;
+        }
     }
 }
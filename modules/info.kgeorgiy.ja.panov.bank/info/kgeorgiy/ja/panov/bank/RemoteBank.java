@@ -1,51 +1,144 @@
 package info.kgeorgiy.ja.panov.bank;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteBank implements Bank, AutoCloseable {
+    private static final long SNAPSHOT_LOG_SIZE = 64 << 20;
+    private static final long SNAPSHOT_CHECK_PERIOD_SECONDS = 10;
 
-public class RemoteBank implements Bank {
     private final int port;
-    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, Person> persons = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RemoteAccount> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RemotePerson> persons = new ConcurrentHashMap<>();
+    private final VersionClock versions = new VersionClock();
+    private final BankLog log;
+    private final ScheduledExecutorService snapshots;
 
     public RemoteBank(final int port) throws RemoteException {
         this.port = port;
+        log = null;
+        snapshots = null;
+        UnicastRemoteObject.exportObject(this, port);
+    }
+
+    /**
+     * Creates persistent bank with group commit, see {@link #RemoteBank(int, Path, boolean)}.
+     */
+    public RemoteBank(final int port, final Path directory) throws IOException {
+        this(port, directory, true);
+    }
+
+    /**
+     * Creates persistent bank: its state is recovered from the directory and every mutation is written
+     * to the log in the directory before the call returns. A snapshot is taken when the log grows
+     * over {@code 64} MiB. Over RMI, mutations are about {@code 5} times slower than in an in-memory bank
+     * for a single client and about {@code 2.5} times slower for {@code 16} concurrent clients
+     * with group commit (see {@code BankTests -bench}).
+     *
+     * @param groupCommit if {@code true}, concurrent mutations share syncs of the log,
+     *                    otherwise every mutation is synced separately.
+     */
+    public RemoteBank(final int port, final Path directory, final boolean groupCommit) throws IOException {
+        this.port = port;
+        log = new BankLog(directory, groupCommit);
+        recover();
+        snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "bank-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                if (log.size() >= SNAPSHOT_LOG_SIZE) {
+                    snapshot();
+                }
+            } catch (final IOException e) {
+                System.err.println("Bank snapshot cannot be written=[" + e.getMessage() + "]");
+            }
+        }, SNAPSHOT_CHECK_PERIOD_SECONDS, SNAPSHOT_CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
         UnicastRemoteObject.exportObject(this, port);
     }
 
+    private void recover() throws IOException {
+        log.recover(new BankLog.Replay() {
+            @Override
+            public void person(final String name, final String surname, final String passport) throws IOException {
+                persons.putIfAbsent(passport, new RemotePerson(name, surname, passport, port));
+            }
+
+            @Override
+            public void account(final String passport, final String subId) throws IOException {
+                final RemotePerson person = persons.get(passport);
+                if (person == null) {
+                    throw new IOException("Account of unknown person in bank log=[" + passport + "]");
+                }
+                final String id = passport + ":" + subId;
+                if (!accounts.containsKey(id)) {
+                    final RemoteAccount account = new RemoteAccount(id, port, log, versions);
+                    accounts.put(id, account);
+                    person.addAccount(subId, account);
+                }
+            }
+
+            @Override
+            public void amount(final String id, final long amount) throws IOException {
+                final RemoteAccount account = accounts.get(id);
+                if (account == null) {
+                    throw new IOException("Unknown account in bank log=[" + id + "]");
+                }
+                account.restore(amount);
+            }
+        });
+    }
+
     @Override
     public Account createAccount(final String subId, final Person person) throws RemoteException {
-        final Person bankPerson = createPersonIfAbsent(person.getName(), person.getSurname(), person.getPassport());
-        final String key = person.getPassport() + ":" + subId;
-        final Account account = createAccount(key);
-
-        bankPerson.addAccount(subId, account);
-        return account;
+        final String passport = person.getPassport();
+        final Person bankPerson = createPersonIfAbsent(person.getName(), person.getSurname(), passport);
+        return createAccount(bankPerson, passport, subId);
     }
 
-    private Account createAccount(final String id) throws RemoteException {
-        final Account account = new RemoteAccount(id, port);
-        if (accounts.putIfAbsent(id, account) == null) {
+    private Account createAccount(final Person bankPerson, final String passport, final String subId)
+            throws RemoteException {
+        final String id = passport + ":" + subId;
+        final RemoteAccount account = new RemoteAccount(id, port, log, versions);
+        return write(record -> {
+            final RemoteAccount existing = accounts.putIfAbsent(id, account);
+            if (existing != null) {
+                bankPerson.addAccount(subId, existing);
+                return existing;
+            }
+            bankPerson.addAccount(subId, account);
+            BankLog.account(record, passport, subId);
             return account;
-        } else {
-            return getAccount(id);
-        }
+        });
     }
 
     @Override
     public Person createPerson(final String name, final String surname, final String passport) throws RemoteException {
-        final Person person = new RemotePerson(name, surname, passport);
-        if (persons.putIfAbsent(passport, person) == null) {
-            UnicastRemoteObject.exportObject(person, port);
+        final RemotePerson person = new RemotePerson(name, surname, passport, port);
+        return write(record -> {
+            final RemotePerson existing = persons.putIfAbsent(passport, person);
+            if (existing != null) {
+                return existing;
+            }
+            BankLog.person(record, name, surname, passport);
             return person;
-        } else {
-            return getRemotePerson(passport);
-        }
+        });
     }
 
     @Override
@@ -53,6 +146,10 @@ public class RemoteBank implements Bank {
         return accounts.get(id);
     }
 
+    /**
+     * Copies amounts of the person's accounts as of a single moment, without stopping concurrent changes.
+     * The snapshot is open only while amounts are read, since versions are kept for it.
+     */
     @Override
     public Person getLocalPerson(final String passport) throws RemoteException {
         Person person = persons.get(passport);
@@ -60,11 +157,21 @@ public class RemoteBank implements Bank {
             return person;
         }
 
-        final Map<String, Account> personsAccounts = person.getAccounts();
+        final List<Map.Entry<String, Account>> personsAccounts = new ArrayList<>(person.getAccounts().entrySet());
+        final long[] amounts = new long[personsAccounts.size()];
+        try (final VersionClock.Snapshot snapshot = versions.snapshot()) {
+            for (int i = 0; i < amounts.length; i++) {
+                final Account account = personsAccounts.get(i).getValue();
+                amounts[i] = account instanceof RemoteAccount
+                        ? ((RemoteAccount) account).getAmount(snapshot)
+                        : account.getAmount();
+            }
+        }
+
         final Map<String, Account> accountsCopy = new HashMap<>();
-        for (final String key : personsAccounts.keySet()) {
-            final Account account = personsAccounts.get(key);
-            accountsCopy.put(key, new LocalAccount(account.getId(), account.getAmount()));
+        for (int i = 0; i < amounts.length; i++) {
+            final Map.Entry<String, Account> entry = personsAccounts.get(i);
+            accountsCopy.put(entry.getKey(), new LocalAccount(entry.getValue().getId(), amounts[i]));
         }
 
         return new LocalPerson(person.getName(), person.getSurname(), person.getPassport(), accountsCopy);
@@ -74,4 +181,139 @@ public class RemoteBank implements Bank {
     public Person getRemotePerson(final String passport) {
         return persons.get(passport);
     }
+
+    @Override
+    public boolean transfer(final String fromId, final String toId, final long amount) throws RemoteException {
+        return transfer(List.of(new Transfer(fromId, toId, amount)));
+    }
+
+    /**
+     * Applies total changes of the accounts at once, failing if some account with negative change
+     * has not enough money. Uncommitted versions of the accounts are installed first and committed
+     * with a single stamp, so a snapshot sees either the whole transfer or nothing of it,
+     * and a concurrent change of an account waits for the commit or abort.
+     * In a persistent bank, the transfer is logged as a single record.
+     */
+    @Override
+    public boolean transfer(final List<Transfer> transfers) throws RemoteException {
+        final Map<RemoteAccount, Long> changes = new LinkedHashMap<>();
+        for (final Transfer transfer : transfers) {
+            if (transfer.getAmount() < 0) {
+                throw new IllegalArgumentException("Transferred amount should be non-negative=[" + transfer + "]");
+            }
+            changes.merge(existingAccount(transfer.getFromId()), -transfer.getAmount(), Long::sum);
+            changes.merge(existingAccount(transfer.getToId()), transfer.getAmount(), Long::sum);
+        }
+
+        return write(record -> {
+            if (!RemoteAccount.apply(changes, true)) {
+                return false;
+            }
+            for (final RemoteAccount account : changes.keySet()) {
+                BankLog.amount(record, account);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public String[] createAccounts(final Person person, final String[] subIds) throws RemoteException {
+        final String passport = person.getPassport();
+        final Person bankPerson = createPersonIfAbsent(person.getName(), person.getSurname(), passport);
+        final String[] ids = new String[subIds.length];
+        for (int i = 0; i < subIds.length; i++) {
+            ids[i] = createAccount(bankPerson, passport, subIds[i]).getId();
+        }
+        return ids;
+    }
+
+    @Override
+    public long[] getAmounts(final String[] ids) {
+        final RemoteAccount[] found = existingAccounts(ids);
+        final long[] amounts = new long[found.length];
+        try (final VersionClock.Snapshot snapshot = versions.snapshot()) {
+            for (int i = 0; i < found.length; i++) {
+                amounts[i] = found[i].getAmount(snapshot);
+            }
+        }
+        return amounts;
+    }
+
+    @Override
+    public void addAmounts(final String[] ids, final long[] deltas) throws RemoteException {
+        if (ids.length != deltas.length) {
+            throw new IllegalArgumentException("Numbers of accounts and deltas differ");
+        }
+        final Map<RemoteAccount, Long> changes = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            changes.merge(existingAccount(ids[i]), deltas[i], Long::sum);
+        }
+        write(record -> {
+            RemoteAccount.apply(changes, false);
+            for (final RemoteAccount account : changes.keySet()) {
+                BankLog.amount(record, account);
+            }
+            return null;
+        });
+    }
+
+    private RemoteAccount[] existingAccounts(final String[] ids) {
+        final RemoteAccount[] found = new RemoteAccount[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            found[i] = existingAccount(ids[i]);
+        }
+        return found;
+    }
+
+    private RemoteAccount existingAccount(final String id) {
+        final RemoteAccount account = accounts.get(id);
+        if (account == null) {
+            throw new IllegalArgumentException("Account not found=[" + id + "]");
+        }
+        return account;
+    }
+
+    /**
+     * Applies the mutation and writes it to the log of a persistent bank.
+     */
+    private <T> T write(final BankLog.Mutation<T> mutation) throws RemoteException {
+        try {
+            return log == null ? mutation.apply(null) : log.write(mutation);
+        } catch (final RemoteException e) {
+            throw e;
+        } catch (final IOException e) {
+            throw new RemoteException("Bank log cannot be written", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a persistent bank, so the log before the snapshot is no longer needed.
+     */
+    public void snapshot() throws IOException {
+        if (log != null) {
+            log.snapshot(persons.values());
+        }
+    }
+
+    /**
+     * Unexports the bank, so it accepts no more remote calls, then stops taking snapshots
+     * and closes the log of a persistent bank.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (final NoSuchObjectException ignored) {
+            // already unexported
+        }
+        if (log != null) {
+            snapshots.shutdown();
+            try {
+                snapshots.awaitTermination(SNAPSHOT_CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log.close();
+        }
+    }
 }
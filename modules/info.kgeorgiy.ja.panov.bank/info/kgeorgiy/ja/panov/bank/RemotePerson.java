@@ -1,9 +1,34 @@
 package info.kgeorgiy.ja.panov.bank;
 
+import java.io.ObjectStreamException;
+import java.rmi.server.Unreferenced;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class RemotePerson extends AbstractPerson {
+/**
+ * Person of a bank, exported only while clients hold its stub, see {@link LazyExport}.
+ */
+public class RemotePerson extends AbstractPerson implements Unreferenced {
+    private final int port;
+    private int marshals;
+
     public RemotePerson(String name, String surname, String passport) {
+        this(name, surname, passport, 0);
+    }
+
+    public RemotePerson(String name, String surname, String passport, int port) {
         super(name, surname, passport, new ConcurrentHashMap<>());
+        this.port = port;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        synchronized (this) {
+            marshals++;
+            return LazyExport.stub(this, port);
+        }
+    }
+
+    @Override
+    public void unreferenced() {
+        LazyExport.unreferenced(this, () -> marshals);
     }
 }
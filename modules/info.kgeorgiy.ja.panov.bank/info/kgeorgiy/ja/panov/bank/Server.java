@@ -1,8 +1,10 @@
 package info.kgeorgiy.ja.panov.bank;
 
+import java.io.IOException;
 import java.rmi.*;
 import java.rmi.server.*;
 import java.net.*;
+import java.nio.file.Path;
 
 public final class Server {
     private final static int DEFAULT_PORT = 8888;
@@ -12,7 +14,7 @@ public final class Server {
 
         final Bank bank;
         try {
-            bank = new RemoteBank(port);
+            bank = args.length > 1 ? new RemoteBank(port, Path.of(args[1])) : new RemoteBank(port);
             Naming.rebind("//localhost/bank", bank);
             System.out.println("Server started");
         } catch (final RemoteException e) {
@@ -21,6 +23,9 @@ public final class Server {
             System.exit(1);
         } catch (final MalformedURLException e) {
             System.out.println("Malformed URL");
+        } catch (final IOException e) {
+            System.out.println("Cannot recover bank: " + e.getMessage());
+            System.exit(1);
         }
     }
 }
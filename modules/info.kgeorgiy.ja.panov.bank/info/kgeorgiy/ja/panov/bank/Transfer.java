@@ -0,0 +1,35 @@
+package info.kgeorgiy.ja.panov.bank;
+
+import java.io.Serializable;
+
+/**
+ * Leg of a transfer between two accounts of a bank, see {@link Bank#transfer(java.util.List)}.
+ */
+public final class Transfer implements Serializable {
+    private final String fromId;
+    private final String toId;
+    private final long amount;
+
+    public Transfer(final String fromId, final String toId, final long amount) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+    }
+
+    public String getFromId() {
+        return fromId;
+    }
+
+    public String getToId() {
+        return toId;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return fromId + " -> " + toId + ": " + amount;
+    }
+}
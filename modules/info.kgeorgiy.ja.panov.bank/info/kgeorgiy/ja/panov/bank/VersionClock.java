@@ -0,0 +1,63 @@
+package info.kgeorgiy.ja.panov.bank;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock of versions of accounts of a bank.
+ * Writers stamp committed versions with the current time, a snapshot advances the time,
+ * so it sees exactly the versions committed before it started.
+ * Old versions are kept only while some open snapshot may need them.
+ */
+class VersionClock {
+    private final AtomicLong time = new AtomicLong();
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    private volatile long oldest = Long.MAX_VALUE;
+
+    long time() {
+        return time.get();
+    }
+
+    /**
+     * Returns time not after any open snapshot. Versions older than the one visible at this time are not needed.
+     */
+    long oldest() {
+        return oldest;
+    }
+
+    /**
+     * Opens a snapshot. Its bound is published before the snapshot takes its time,
+     * so a writer either keeps versions needed for the snapshot or has committed its version before it.
+     */
+    Snapshot snapshot() {
+        final long bound;
+        synchronized (open) {
+            bound = time.get();
+            open.merge(bound, 1, Integer::sum);
+            oldest = open.firstKey();
+        }
+        return new Snapshot(bound, time.getAndIncrement());
+    }
+
+    class Snapshot implements AutoCloseable {
+        private final long bound;
+        private final long time;
+
+        private Snapshot(final long bound, final long time) {
+            this.bound = bound;
+            this.time = time;
+        }
+
+        long time() {
+            return time;
+        }
+
+        @Override
+        public void close() {
+            synchronized (open) {
+                open.computeIfPresent(bound, (key, count) -> count == 1 ? null : count - 1);
+                oldest = open.isEmpty() ? Long.MAX_VALUE : open.firstKey();
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a crawl recorded in the compact binary format produced by {@link ReplayConverter}.
+ * The file is memory-mapped and pages are decoded only when downloaded,
+ * so startup time and heap usage do not depend on the corpus size.
+ * Behaves like {@link info.kgeorgiy.java.advanced.crawler.ReplayDownloader}.
+ *
+ * <pre>
+ * header:  MAGIC VERSION urls hashSize types offsetsPos hashPos pagesPos blobPos recordsPos (ints)
+ * types:   UTF names of exception classes
+ * offsets: int[urls + 1], start of every URL in blob
+ * hash:    int[hashSize], open addressing table of URL ids + 1 by {@link String#hashCode()}
+ * pages:   int[urls], start of page record in records or -1
+ * blob:    UTF-8 bytes of all URLs
+ * records: LINKS count zigzag-delta-ids... | ERROR type message | NO_LINKS
+ * </pre>
+ * Numbers in records are unsigned LEB128 varints.
+ * Downloaded documents are {@link FingerprintedDocument}s, fingerprint of a page is a hash of its record.
+ */
+public class BinaryReplayDownloader implements Downloader {
+    static final int MAGIC = 0x52504c59;
+    static final int VERSION = 1;
+    static final byte LINKS = 0;
+    static final byte ERROR = 1;
+    static final byte NO_LINKS = 2;
+    private static final int HEADER_INTS = 10;
+
+    private final ByteBuffer buffer;
+    private final int urls;
+    private final int hashMask;
+    private final String[] types;
+    private final int offsetsPos;
+    private final int hashPos;
+    private final int pagesPos;
+    private final int blobPos;
+    private final int recordsPos;
+    private final ConcurrentMap<Integer, IOException> exceptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> downloaded = new ConcurrentHashMap<>();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final int pages;
+    private final int downloadDelay;
+    private final int extractDelay;
+
+    public BinaryReplayDownloader(final Path file, final int downloadDelay, final int extractDelay) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a replay file");
+        }
+        urls = buffer.getInt(8);
+        hashMask = buffer.getInt(12) - 1;
+        types = new String[buffer.getInt(16)];
+        offsetsPos = buffer.getInt(20);
+        hashPos = buffer.getInt(24);
+        pagesPos = buffer.getInt(28);
+        blobPos = buffer.getInt(32);
+        recordsPos = buffer.getInt(36);
+
+        final ByteBuffer typeBuffer = buffer.duplicate().position(HEADER_INTS * Integer.BYTES);
+        for (int i = 0; i < types.length; i++) {
+            final byte[] bytes = new byte[typeBuffer.getShort() & 0xffff];
+            typeBuffer.get(bytes);
+            types[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int count = 0;
+        for (int id = 0; id < urls; id++) {
+            if (pageOffset(id) >= 0) {
+                count++;
+            }
+        }
+        this.pages = count;
+        this.downloadDelay = downloadDelay;
+        this.extractDelay = extractDelay;
+    }
+
+    @Override
+    public Document download(final String url) throws IOException {
+        final int id = findPage(url);
+        if (downloaded.putIfAbsent(url, true) != null) {
+            throw new AssertionError("Duplicate download of " + url);
+        }
+        if (downloaded.size() % 100 == 0) {
+            System.out.format("    %d of %d pages downloaded, %d error(s)%n", downloaded.size(), pages, errors.get());
+        }
+        sleep(downloadDelay);
+        final IOException exception = getException(id);
+        if (exception != null) {
+            errors.incrementAndGet();
+            throw exception;
+        }
+        return new FingerprintedDocument() {
+            @Override
+            public List<String> extractLinks() {
+                sleep(extractDelay);
+                return getLinks(id);
+            }
+
+            @Override
+            public long fingerprint() {
+                return BinaryReplayDownloader.this.fingerprint(id);
+            }
+        };
+    }
+
+    /**
+     * Returns expected result of crawl with specified depth.
+     */
+    public Result expected(final String url, final int depth) {
+        final Map<String, Integer> level = new HashMap<>(Map.of(url, findPage(url)));
+        for (int i = 1; i < depth; i++) {
+            final Map<String, Integer> next = new HashMap<>();
+            for (final int id : level.values()) {
+                final List<String> links = getLinks(id);
+                if (links != null) {
+                    links.forEach(link -> next.put(link, findPage(link)));
+                }
+            }
+            level.putAll(next);
+        }
+
+        final List<String> downloaded = new ArrayList<>();
+        final Map<String, IOException> errors = new HashMap<>();
+        level.forEach((link, id) -> {
+            final IOException exception = getException(id);
+            if (exception == null) {
+                downloaded.add(link);
+            } else {
+                errors.put(link, exception);
+            }
+        });
+        return new Result(downloaded, errors);
+    }
+
+    private int pageOffset(final int id) {
+        return buffer.getInt(pagesPos + id * Integer.BYTES);
+    }
+
+    private int findPage(final String url) {
+        final int id = find(url);
+        if (id < 0 || pageOffset(id) < 0) {
+            throw new AssertionError("Unknown page " + url);
+        }
+        return id;
+    }
+
+    private int find(final String url) {
+        final byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        for (int slot = url.hashCode() & hashMask; ; slot = (slot + 1) & hashMask) {
+            final int id = buffer.getInt(hashPos + slot * Integer.BYTES) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (urlEquals(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean urlEquals(final int id, final byte[] bytes) {
+        final int start = buffer.getInt(offsetsPos + id * Integer.BYTES);
+        final int end = buffer.getInt(offsetsPos + (id + 1) * Integer.BYTES);
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(blobPos + start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getUrl(final int id) {
+        final int start = buffer.getInt(offsetsPos + id * Integer.BYTES);
+        final int end = buffer.getInt(offsetsPos + (id + 1) * Integer.BYTES);
+        final byte[] bytes = new byte[end - start];
+        buffer.get(blobPos + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<String> getLinks(final int id) {
+        final int[] position = {recordsPos + pageOffset(id)};
+        if (buffer.get(position[0]++) != LINKS) {
+            return null;
+        }
+        final int count = readVarInt(position);
+        final List<String> links = new ArrayList<>(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            final int delta = readVarInt(position);
+            previous += (delta >>> 1) ^ -(delta & 1);
+            links.add(getUrl(previous));
+        }
+        return links;
+    }
+
+    /**
+     * FNV-1a hash of the page record, pages with equal links have equal fingerprints.
+     */
+    private long fingerprint(final int id) {
+        final int[] position = {recordsPos + pageOffset(id)};
+        final int start = position[0];
+        if (buffer.get(position[0]++) == LINKS) {
+            for (int count = readVarInt(position); count > 0; count--) {
+                readVarInt(position);
+            }
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < position[0]; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private IOException getException(final int id) {
+        final int offset = pageOffset(id);
+        if (offset < 0 || buffer.get(recordsPos + offset) != ERROR) {
+            return null;
+        }
+        return exceptions.computeIfAbsent(id, i -> {
+            final int[] position = {recordsPos + offset + 1};
+            final String type = types[readVarInt(position)];
+            final int length = readVarInt(position);
+            final String message;
+            if (length == 0) {
+                message = null;
+            } else {
+                final byte[] bytes = new byte[length - 1];
+                buffer.get(position[0], bytes);
+                message = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return createException(type, message);
+        });
+    }
+
+    private static IOException createException(final String type, final String message) {
+        try {
+            final Class<?> clazz = Class.forName(type);
+            if (IOException.class.isAssignableFrom(clazz)) {
+                return (IOException) clazz.getConstructor(String.class).newInstance(message);
+            }
+        } catch (final ClassNotFoundException | NoSuchMethodException | InstantiationException
+                | IllegalAccessException | InvocationTargetException ignore) {
+            // fall back to plain IOException
+        }
+        return new IOException(type + (message == null ? "" : ": " + message));
+    }
+
+    private int readVarInt(final int[] position) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get(position[0]++);
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private static void sleep(final int max) {
+        if (max > 0) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(max) + 1);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import java.net.MalformedURLException;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Scores links for the priority crawl mode of {@link WebCrawler}.
+ * Links with higher scores are downloaded first.
+ */
+@FunctionalInterface
+public interface CrawlPriority {
+    /**
+     * Returns score of the link found at specified crawl depth.
+     *
+     * @param url link to score.
+     * @param depth crawl depth of the link, start page has depth {@code 1}.
+     * @return score of the link, higher is better.
+     */
+    double score(String url, int depth);
+
+    /**
+     * Shallow pages first, which is the plain BFS order.
+     */
+    static CrawlPriority byDepth() {
+        return (url, depth) -> -depth;
+    }
+
+    /**
+     * Pages with fewer path segments first.
+     */
+    static CrawlPriority byPathDepth() {
+        return (url, depth) -> -pathDepth(url);
+    }
+
+    /**
+     * Pages on hosts with higher scores first. Malformed links get the lowest score.
+     */
+    static CrawlPriority byHost(final ToDoubleFunction<String> hostScore) {
+        return (url, depth) -> {
+            try {
+                return hostScore.applyAsDouble(URLHosts.getHost(url));
+            } catch (final MalformedURLException e) {
+                return Double.NEGATIVE_INFINITY;
+            }
+        };
+    }
+
+    /**
+     * Sums scores of this and other priority.
+     */
+    default CrawlPriority plus(final CrawlPriority other) {
+        return (url, depth) -> score(url, depth) + other.score(url, depth);
+    }
+
+    private static int pathDepth(final String url) {
+        final int schemeEnd = url.indexOf("://");
+        int pos = url.indexOf('/', schemeEnd < 0 ? 0 : schemeEnd + 3);
+        int segments = 0;
+        while (pos >= 0 && pos < url.length()) {
+            final char c = url.charAt(pos);
+            if (c == '?' || c == '#') {
+                break;
+            }
+            if (c == '/' && pos + 1 < url.length() && "/?#".indexOf(url.charAt(pos + 1)) < 0) {
+                segments++;
+            }
+            pos++;
+        }
+        return segments;
+    }
+}
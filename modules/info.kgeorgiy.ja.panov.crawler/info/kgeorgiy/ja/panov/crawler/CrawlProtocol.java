@@ -0,0 +1,112 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Wire format between {@link DistributedCrawler} and {@link CrawlWorker}.
+ * <pre>
+ * worker -> coordinator: token (on connect)
+ * coordinator -> worker: START hosts | LAYER isLast urls | FINISH | STOP
+ * worker -> coordinator: links (after LAYER) | downloaded errors (after FINISH)
+ * </pre>
+ * Strings are length-prefixed UTF-8, errors are class name and message of the exception,
+ * so nothing received is deserialized. The token is generated per run and passed to workers
+ * in the {@link #TOKEN_VARIABLE} environment variable, other local processes cannot connect instead of workers.
+ */
+final class CrawlProtocol {
+    static final byte START = 1;
+    static final byte LAYER = 2;
+    static final byte FINISH = 3;
+    static final byte STOP = 4;
+    static final String TOKEN_VARIABLE = "CRAWL_WORKER_TOKEN";
+    static final int TOKEN_LENGTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Utility class
+    private CrawlProtocol() {}
+
+    static String newToken() {
+        final byte[] bytes = new byte[TOKEN_LENGTH / 2];
+        RANDOM.nextBytes(bytes);
+        final StringBuilder token = new StringBuilder(TOKEN_LENGTH);
+        for (final byte b : bytes) {
+            token.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        return token.toString();
+    }
+
+    static void writeToken(final DataOutputStream out, final String token) throws IOException {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            throw new IOException("No valid token in " + TOKEN_VARIABLE);
+        }
+        out.write(token.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    static boolean readToken(final DataInputStream in, final String token) throws IOException {
+        final byte[] bytes = new byte[TOKEN_LENGTH];
+        in.readFully(bytes);
+        return MessageDigest.isEqual(bytes, token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(final DataOutputStream out, final Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    static List<String> readStrings(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    static void writeErrors(final DataOutputStream out, final Map<String, IOException> errors) throws IOException {
+        out.writeInt(errors.size());
+        for (final Map.Entry<String, IOException> entry : errors.entrySet()) {
+            final IOException error = entry.getValue();
+            writeString(out, entry.getKey());
+            writeString(out, error.getClass().getName());
+            out.writeBoolean(error.getMessage() != null);
+            if (error.getMessage() != null) {
+                writeString(out, error.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads errors as {@link IOException}s with the message of {@link Throwable#toString()} of the original ones.
+     */
+    static Map<String, IOException> readErrors(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, IOException> errors = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String url = readString(in);
+            final String className = readString(in);
+            final String message = in.readBoolean() ? readString(in) : null;
+            errors.put(url, new IOException(message == null ? className : className + ": " + message));
+        }
+        return errors;
+    }
+}
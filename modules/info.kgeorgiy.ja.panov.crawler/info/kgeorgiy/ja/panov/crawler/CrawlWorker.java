@@ -0,0 +1,94 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.CachingDownloader;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.ReplayDownloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Worker process of a {@link DistributedCrawler}: crawls pages of a single partition
+ * with a local {@link WebCrawler}.
+ */
+public class CrawlWorker {
+    private final WebCrawler webCrawler;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private CrawlWorker(final WebCrawler webCrawler, final Socket socket) throws IOException {
+        this.webCrawler = webCrawler;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        CrawlProtocol.writeToken(out, System.getenv(CrawlProtocol.TOKEN_VARIABLE));
+    }
+
+    private void serve() throws IOException {
+        WebCrawler.Partition partition = webCrawler.partition(null);
+        while (true) {
+            final byte command = in.readByte();
+            switch (command) {
+                case CrawlProtocol.START:
+                    final boolean hasHosts = in.readBoolean();
+                    final List<String> hosts = hasHosts ? CrawlProtocol.readStrings(in) : null;
+                    partition = webCrawler.partition(hosts);
+                    break;
+                case CrawlProtocol.LAYER:
+                    final boolean isLastLayer = in.readBoolean();
+                    final List<String> urls = CrawlProtocol.readStrings(in);
+                    CrawlProtocol.writeStrings(out, partition.crawlLayer(urls, isLastLayer));
+                    out.flush();
+                    break;
+                case CrawlProtocol.FINISH:
+                    final Result result = partition.result();
+                    CrawlProtocol.writeStrings(out, result.getDownloaded());
+                    CrawlProtocol.writeErrors(out, result.getErrors());
+                    out.flush();
+                    break;
+                case CrawlProtocol.STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown command " + command);
+            }
+        }
+    }
+
+    private static Downloader createDownloader(final String[] args) throws IOException {
+        if (args.length == 5) {
+            return new CachingDownloader();
+        }
+        if (args.length == 9 && "replay".equals(args[5])) {
+            return new ReplayDownloader(args[6], Integer.parseInt(args[7]), Integer.parseInt(args[8]));
+        }
+        throw new IllegalArgumentException("Unknown downloader " + String.join(" ", Arrays.asList(args).subList(5, args.length)));
+    }
+
+    public static void main(final String[] args) {
+        if (args == null || Arrays.stream(args).anyMatch(Objects::isNull) || args.length != 5 && args.length != 9) {
+            System.err.println("Wrong arguments format=[host port downloaders extractors perHost [replay url downloadDelay extractDelay]]");
+            return;
+        }
+
+        try (
+                final Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+                final WebCrawler webCrawler = new WebCrawler(
+                        createDownloader(args),
+                        Integer.parseInt(args[2]),
+                        Integer.parseInt(args[3]),
+                        Integer.parseInt(args[4])
+                )
+        ) {
+            new CrawlWorker(webCrawler, socket).serve();
+        } catch (final NumberFormatException e) {
+            System.err.println("Wrong number format=[" + e.getMessage() + "]");
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (final IOException e) {
+            System.err.println("Worker I/O error=[" + e.getMessage() + "]");
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Counters and per-stage latency histograms of a {@link WebCrawler}.
+ * All updates are {@link LongAdder} increments, so metrics are always on.
+ * Admission wait is kept for at most {@link #MAX_HOSTS} hosts: when a new host comes, the host
+ * with the least wait is evicted and its wait is counted for {@link #OTHER_HOSTS}.
+ */
+public class CrawlerMetrics implements CrawlerMetricsMXBean {
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    private static final int MAX_HOSTS = 256;
+    private static final String OTHER_HOSTS = "(other hosts)";
+
+    public enum Stage {
+        HOST_ADMISSION, DOWNLOAD, EXTRACT
+    }
+
+    private final LongAdder pagesDownloaded = new LongAdder();
+    private final LongAdder downloadErrors = new LongAdder();
+    private final LongAdder extractErrors = new LongAdder();
+    private final LongAdder linksExtracted = new LongAdder();
+    private final LongAdder duplicatesSkipped = new LongAdder();
+    private final LongAdder downloadsQueued = new LongAdder();
+    private final LongAdder downloadsInFlight = new LongAdder();
+    private final LongAdder extractionsQueued = new LongAdder();
+    private final LongAdder extractionsInFlight = new LongAdder();
+    private final LatencyHistogram[] latencies = Arrays.stream(Stage.values())
+            .map(stage -> new LatencyHistogram())
+            .toArray(LatencyHistogram[]::new);
+    private final Map<String, LongAdder> hostWaitNanos = new ConcurrentHashMap<>();
+    private final LongAdder otherHostsWaitNanos = new LongAdder();
+    private ObjectName objectName;
+
+    void downloadQueued() {
+        downloadsQueued.increment();
+    }
+
+    void downloadStarted() {
+        downloadsQueued.decrement();
+        downloadsInFlight.increment();
+    }
+
+    void hostAdmitted(final String host, final long waitNanos) {
+        latencies[Stage.HOST_ADMISSION.ordinal()].record(waitNanos);
+        if (hostWaitNanos.computeIfPresent(host, (h, wait) -> add(wait, waitNanos)) != null) {
+            return;
+        }
+        synchronized (hostWaitNanos) {
+            if (!hostWaitNanos.containsKey(host) && hostWaitNanos.size() >= MAX_HOSTS) {
+                hostWaitNanos.entrySet().stream()
+                        .min(Map.Entry.comparingByValue(Comparator.comparingLong(LongAdder::sum)))
+                        .map(Map.Entry::getKey)
+                        .ifPresent(evicted -> hostWaitNanos.computeIfPresent(evicted, (h, wait) -> {
+                            otherHostsWaitNanos.add(wait.sum());
+                            return null;
+                        }));
+            }
+            hostWaitNanos.computeIfAbsent(host, h -> new LongAdder()).add(waitNanos);
+        }
+    }
+
+    private static LongAdder add(final LongAdder adder, final long value) {
+        adder.add(value);
+        return adder;
+    }
+
+    void downloadFinished(final long nanos, final boolean success) {
+        downloadsInFlight.decrement();
+        latencies[Stage.DOWNLOAD.ordinal()].record(nanos);
+        (success ? pagesDownloaded : downloadErrors).increment();
+    }
+
+    void extractionQueued() {
+        extractionsQueued.increment();
+    }
+
+    void extractionStarted() {
+        extractionsQueued.decrement();
+        extractionsInFlight.increment();
+    }
+
+    void extractionFinished(final long nanos, final int links) {
+        extractionsInFlight.decrement();
+        latencies[Stage.EXTRACT.ordinal()].record(nanos);
+        if (links < 0) {
+            extractErrors.increment();
+        } else {
+            linksExtracted.add(links);
+        }
+    }
+
+    void duplicateSkipped() {
+        duplicatesSkipped.increment();
+    }
+
+    public Snapshot snapshot() {
+        final Map<Stage, LatencyHistogram.Snapshot> stages = new EnumMap<>(Stage.class);
+        for (final Stage stage : Stage.values()) {
+            stages.put(stage, latencies[stage.ordinal()].snapshot());
+        }
+        return new Snapshot(
+                pagesDownloaded.sum(), downloadErrors.sum(), extractErrors.sum(), linksExtracted.sum(),
+                duplicatesSkipped.sum(), downloadsQueued.sum(), downloadsInFlight.sum(), extractionsQueued.sum(), extractionsInFlight.sum(),
+                stages
+        );
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server.
+     *
+     * @return name of the registered MBean.
+     * @throws JMException if registration failed.
+     */
+    public synchronized ObjectName register() throws JMException {
+        if (objectName == null) {
+            final ObjectName name = new ObjectName(
+                    "info.kgeorgiy.ja.panov.crawler:type=WebCrawler,id=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        return objectName;
+    }
+
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException ignore) {
+                // already unregistered
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getPagesDownloaded() {
+        return pagesDownloaded.sum();
+    }
+
+    @Override
+    public long getDownloadErrors() {
+        return downloadErrors.sum();
+    }
+
+    @Override
+    public long getExtractErrors() {
+        return extractErrors.sum();
+    }
+
+    @Override
+    public long getLinksExtracted() {
+        return linksExtracted.sum();
+    }
+
+    @Override
+    public long getDuplicatesSkipped() {
+        return duplicatesSkipped.sum();
+    }
+
+    @Override
+    public double getErrorRate() {
+        return snapshot().getErrorRate();
+    }
+
+    @Override
+    public long getDownloadsQueued() {
+        return downloadsQueued.sum();
+    }
+
+    @Override
+    public long getDownloadsInFlight() {
+        return downloadsInFlight.sum();
+    }
+
+    @Override
+    public long getExtractionsQueued() {
+        return extractionsQueued.sum();
+    }
+
+    @Override
+    public long getExtractionsInFlight() {
+        return extractionsInFlight.sum();
+    }
+
+    @Override
+    public double getHostAdmissionP50Millis() {
+        return percentileMillis(Stage.HOST_ADMISSION, 0.5);
+    }
+
+    @Override
+    public double getHostAdmissionP99Millis() {
+        return percentileMillis(Stage.HOST_ADMISSION, 0.99);
+    }
+
+    @Override
+    public double getDownloadP50Millis() {
+        return percentileMillis(Stage.DOWNLOAD, 0.5);
+    }
+
+    @Override
+    public double getDownloadP99Millis() {
+        return percentileMillis(Stage.DOWNLOAD, 0.99);
+    }
+
+    @Override
+    public double getExtractP50Millis() {
+        return percentileMillis(Stage.EXTRACT, 0.5);
+    }
+
+    @Override
+    public double getExtractP99Millis() {
+        return percentileMillis(Stage.EXTRACT, 0.99);
+    }
+
+    @Override
+    public Map<String, Long> getHostWaitMillis() {
+        final Map<String, Long> waits = hostWaitNanos.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum() / 1_000_000));
+        final long other = otherHostsWaitNanos.sum();
+        if (other > 0) {
+            waits.put(OTHER_HOSTS, other / 1_000_000);
+        }
+        return waits;
+    }
+
+    private double percentileMillis(final Stage stage, final double quantile) {
+        return latencies[stage.ordinal()].snapshot().getPercentileNanos(quantile) / 1e6;
+    }
+
+    public static class Snapshot {
+        private final long pagesDownloaded;
+        private final long downloadErrors;
+        private final long extractErrors;
+        private final long linksExtracted;
+        private final long duplicatesSkipped;
+        private final long downloadsQueued;
+        private final long downloadsInFlight;
+        private final long extractionsQueued;
+        private final long extractionsInFlight;
+        private final Map<Stage, LatencyHistogram.Snapshot> latencies;
+
+        private Snapshot(
+                final long pagesDownloaded,
+                final long downloadErrors,
+                final long extractErrors,
+                final long linksExtracted,
+                final long duplicatesSkipped,
+                final long downloadsQueued,
+                final long downloadsInFlight,
+                final long extractionsQueued,
+                final long extractionsInFlight,
+                final Map<Stage, LatencyHistogram.Snapshot> latencies
+        ) {
+            this.pagesDownloaded = pagesDownloaded;
+            this.downloadErrors = downloadErrors;
+            this.extractErrors = extractErrors;
+            this.linksExtracted = linksExtracted;
+            this.duplicatesSkipped = duplicatesSkipped;
+            this.downloadsQueued = downloadsQueued;
+            this.downloadsInFlight = downloadsInFlight;
+            this.extractionsQueued = extractionsQueued;
+            this.extractionsInFlight = extractionsInFlight;
+            this.latencies = latencies;
+        }
+
+        public long getPagesDownloaded() {
+            return pagesDownloaded;
+        }
+
+        public long getDownloadErrors() {
+            return downloadErrors;
+        }
+
+        public long getExtractErrors() {
+            return extractErrors;
+        }
+
+        public long getLinksExtracted() {
+            return linksExtracted;
+        }
+
+        public long getDuplicatesSkipped() {
+            return duplicatesSkipped;
+        }
+
+        public double getErrorRate() {
+            final long attempts = pagesDownloaded + downloadErrors;
+            return attempts == 0 ? 0 : (double) (downloadErrors + extractErrors) / attempts;
+        }
+
+        public long getDownloadsQueued() {
+            return downloadsQueued;
+        }
+
+        public long getDownloadsInFlight() {
+            return downloadsInFlight;
+        }
+
+        public long getExtractionsQueued() {
+            return extractionsQueued;
+        }
+
+        public long getExtractionsInFlight() {
+            return extractionsInFlight;
+        }
+
+        public LatencyHistogram.Snapshot getLatency(final Stage stage) {
+            return latencies.get(stage);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "pages=%d errors=%d+%d links=%d duplicates=%d downloads=%d queued/%d active extractions=%d queued/%d active%n"
+                            + "    host admission: %s%n    download: %s%n    extract: %s",
+                    pagesDownloaded, downloadErrors, extractErrors, linksExtracted, duplicatesSkipped,
+                    downloadsQueued, downloadsInFlight, extractionsQueued, extractionsInFlight,
+                    latencies.get(Stage.HOST_ADMISSION), latencies.get(Stage.DOWNLOAD), latencies.get(Stage.EXTRACT)
+            );
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link CrawlerMetrics}. Latencies are in milliseconds.
+ */
+public interface CrawlerMetricsMXBean {
+    long getPagesDownloaded();
+
+    long getDownloadErrors();
+
+    long getExtractErrors();
+
+    long getLinksExtracted();
+
+    long getDuplicatesSkipped();
+
+    double getErrorRate();
+
+    long getDownloadsQueued();
+
+    long getDownloadsInFlight();
+
+    long getExtractionsQueued();
+
+    long getExtractionsInFlight();
+
+    double getHostAdmissionP50Millis();
+
+    double getHostAdmissionP99Millis();
+
+    double getDownloadP50Millis();
+
+    double getDownloadP99Millis();
+
+    double getExtractP50Millis();
+
+    double getExtractP99Millis();
+
+    /**
+     * Returns admission wait of the hosts waited for most, the rest are summed under one key.
+     */
+    Map<String, Long> getHostWaitMillis();
+}
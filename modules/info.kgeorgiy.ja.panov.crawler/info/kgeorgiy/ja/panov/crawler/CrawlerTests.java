@@ -0,0 +1,214 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.ReplayDownloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.internal.TextListener;
+import org.junit.runner.JUnitCore;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class CrawlerTests {
+    private static final String HOST = "http://h/";
+    private static final long SLOW_MILLIS = 300;
+    private static final List<String> REPLAY_SITES = List.of(
+            "http://en.itmo.ru/", "http://de.ifmo.ru/", "http://itmo.ru/", "http://nerc.itmo.ru/", "http://www.kgeorgiy.info/"
+    );
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    /**
+     * Downloads pages of a fixed graph, pages with path starting with {@code slow/} are downloaded slowly.
+     */
+    private static class GraphDownloader implements Downloader {
+        private final Map<String, List<String>> links = new HashMap<>();
+        private final Map<String, Long> fingerprints = new HashMap<>();
+
+        private GraphDownloader link(final String from, final String... to) {
+            links.put(HOST + from, List.of(to).stream().map(HOST::concat).toList());
+            return this;
+        }
+
+        /**
+         * Makes pages with the same content as the specified one, which are {@link FingerprintedDocument}s.
+         */
+        private GraphDownloader twins(final String page, final String... twins) {
+            fingerprints.put(HOST + page, (long) page.hashCode());
+            for (final String twin : twins) {
+                links.put(HOST + twin, links.get(HOST + page));
+                fingerprints.put(HOST + twin, (long) page.hashCode());
+            }
+            return this;
+        }
+
+        @Override
+        public Document download(final String url) throws IOException {
+            if (url.startsWith(HOST + "slow/")) {
+                try {
+                    Thread.sleep(SLOW_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final List<String> pageLinks = links.getOrDefault(url, List.of());
+            final Long fingerprint = fingerprints.get(url);
+            if (fingerprint == null) {
+                return () -> pageLinks;
+            }
+            return new FingerprintedDocument() {
+                @Override
+                public long fingerprint() {
+                    return fingerprint;
+                }
+
+                @Override
+                public List<String> extractLinks() {
+                    return pageLinks;
+                }
+            };
+        }
+    }
+
+    private static Set<String> downloaded(final Result result) {
+        Assert.assertEquals(Map.of(), result.getErrors());
+        return new TreeSet<>(result.getDownloaded());
+    }
+
+    private static void assertSameAsPlainCrawl(final GraphDownloader downloader, final int depth) {
+        final Set<String> expected;
+        try (final WebCrawler crawler = new WebCrawler(downloader, 2, 1, 10)) {
+            expected = downloaded(crawler.download(HOST, depth));
+        }
+        try (final WebCrawler crawler = new WebCrawler(downloader, 2, 1, 10)) {
+            Assert.assertEquals(
+                    expected,
+                    downloaded(crawler.download(HOST, depth, null, CrawlPriority.byPathDepth(), Integer.MAX_VALUE))
+            );
+        }
+    }
+
+    /**
+     * Pages of a replay corpus with links of every page.
+     */
+    private static class ReplayLinks extends ReplayDownloader {
+        private ReplayLinks(final String url) throws IOException {
+            super(url, 0, 0);
+        }
+
+        private List<String> links() {
+            final List<String> links = new ArrayList<>();
+            pages.forEach((url, page) -> {
+                links.add(url);
+                if (page.links != null) {
+                    links.addAll(page.links);
+                }
+            });
+            return links;
+        }
+    }
+
+    private static List<String> replayLinks() throws IOException {
+        final List<String> links = new ArrayList<>();
+        for (final String site : REPLAY_SITES) {
+            links.addAll(new ReplayLinks(site).links());
+        }
+        return links;
+    }
+
+    private static String host(final String url, final boolean fast) {
+        try {
+            return fast ? URLHosts.getHost(url) : URLUtils.getHost(url);
+        } catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void test_urlHostsMatchURLUtils() throws IOException {
+        for (final String link : replayLinks()) {
+            final String expected = host(link, false);
+            Assert.assertEquals(link, expected, host(link, true));
+            Assert.assertEquals(link, expected, host(link, true));
+        }
+        for (final String link : List.of(
+                "HTTP://Host/", "http://host:/", "http://host:123456/", "http://-host/", "http://1.2.3.4/",
+                "http://host/a b", "http://host/%zz", "http://user@host/", "ftp://host/", "http://", "http://host#x y"
+        )) {
+            Assert.assertEquals(link, host(link, false), host(link, true));
+        }
+    }
+
+    /**
+     * Compares time of host extraction by {@link URLUtils} and {@link URLHosts} on links of the replay corpora.
+     */
+    private static void benchmarkHosts() throws IOException {
+        final List<String> links = replayLinks();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (final boolean fast : new boolean[]{false, true}) {
+                int hosts = 0;
+                final long start = System.nanoTime();
+                for (final String link : links) {
+                    if (host(link, fast) != null) {
+                        hosts++;
+                    }
+                }
+                System.out.printf(
+                        "%s: %.1f ns/link (%d links, %d hosts)%n",
+                        fast ? "URLHosts" : "URLUtils", (double) (System.nanoTime() - start) / links.size(), links.size(), hosts
+                );
+            }
+        }
+    }
+
+    @Test
+    public void test_priorityCrawlFollowsShallowerLink() {
+        final GraphDownloader downloader = new GraphDownloader()
+                .link("", "a", "slow/q/q")
+                .link("a", "b")
+                .link("b", "z")
+                .link("slow/q/q", "z")
+                .link("z", "w");
+        assertSameAsPlainCrawl(downloader, 4);
+    }
+
+    @Test
+    public void test_priorityCrawlExtractsShallowerTwin() {
+        final GraphDownloader downloader = new GraphDownloader()
+                .link("", "a", "slow/q/q/q")
+                .link("a", "b")
+                .link("b", "t")
+                .link("t", "w")
+                .link("slow/q/q/q", "twin/of/t")
+                .link("w", "x")
+                .twins("t", "twin/of/t");
+        assertSameAsPlainCrawl(downloader, 5);
+    }
+
+    /**
+     * Runs the tests, or the benchmark of host extraction if the first argument is {@code -bench}.
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && "-bench".equals(args[0])) {
+            try {
+                benchmarkHosts();
+            } catch (final IOException e) {
+                System.err.println("Replay corpus cannot be read=[" + e.getMessage() + "]");
+            }
+            return;
+        }
+        JUnitCore junit = new JUnitCore();
+        junit.addListener(new TextListener(System.out));
+        junit.run(CrawlerTests.class);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,256 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.AdvancedCrawler;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crawls web sites with several {@link CrawlWorker} processes.
+ * URL space is partitioned by hash of the host, every worker downloads pages of its own partition only.
+ * Crawl proceeds layer by layer: workers download their share of the layer and send back found links,
+ * the coordinator routes them to their owners in one batch per worker.
+ * The crawl terminates when a layer is empty or depth is reached, so results match {@link WebCrawler}.
+ */
+public class DistributedCrawler implements AdvancedCrawler {
+    private static final int AWAIT_TIME_SECONDS = 5;
+    private static final int CONNECT_TIME_SECONDS = 30;
+    private static final int ACCEPT_POLL_MILLIS = 100;
+    private static final String WORKER_MODULE = "info.kgeorgiy.ja.panov.crawler";
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<DataInputStream> inputs = new ArrayList<>();
+    private final List<DataOutputStream> outputs = new ArrayList<>();
+
+    /**
+     * Launches local worker processes and waits for them to connect.
+     * Connections which do not present the token of this run are dropped.
+     *
+     * @param workers number of worker processes.
+     * @param workerArgs arguments of {@link CrawlWorker} after host and port.
+     * @throws IOException if workers cannot be started, exit or do not connect in time.
+     */
+    public DistributedCrawler(final int workers, final String... workerArgs) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers should be positive=[" + workers + "]");
+        }
+        final String token = CrawlProtocol.newToken();
+        try (final ServerSocket serverSocket = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < workers; i++) {
+                processes.add(launchWorker(serverSocket.getLocalPort(), token, workerArgs));
+            }
+            serverSocket.setSoTimeout(ACCEPT_POLL_MILLIS);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CONNECT_TIME_SECONDS);
+            while (sockets.size() < workers) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (final SocketTimeoutException e) {
+                    checkWorkers(deadline);
+                    continue;
+                }
+                if (!authenticate(socket, token)) {
+                    socket.close();
+                    checkWorkers(deadline);
+                    continue;
+                }
+                sockets.add(socket);
+                inputs.add(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                outputs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void checkWorkers(final long deadline) throws IOException {
+        for (final Process process : processes) {
+            if (!process.isAlive()) {
+                throw new IOException("Worker exited with code " + process.exitValue());
+            }
+        }
+        if (System.nanoTime() - deadline > 0) {
+            throw new IOException("Workers did not connect in " + CONNECT_TIME_SECONDS + " seconds");
+        }
+    }
+
+    private static boolean authenticate(final Socket socket, final String token) {
+        try {
+            socket.setSoTimeout(ACCEPT_POLL_MILLIS * 10);
+            final boolean valid = CrawlProtocol.readToken(new DataInputStream(socket.getInputStream()), token);
+            socket.setSoTimeout(0);
+            return valid;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private static Process launchWorker(final int port, final String token, final String[] workerArgs) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        final String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null) {
+            command.addAll(List.of("-p", modulePath, "-m", WORKER_MODULE + "/" + CrawlWorker.class.getName()));
+        } else {
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), CrawlWorker.class.getName()));
+        }
+        command.add(InetAddress.getLoopbackAddress().getHostAddress());
+        command.add(Integer.toString(port));
+        command.addAll(Arrays.asList(workerArgs));
+        final ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        builder.environment().put(CrawlProtocol.TOKEN_VARIABLE, token);
+        return builder.start();
+    }
+
+    static int partition(final String url, final int partitions) {
+        String key;
+        try {
+            key = URLHosts.getHost(url);
+        } catch (final MalformedURLException e) {
+            key = url;
+        }
+        return Math.floorMod(Objects.hashCode(key), partitions);
+    }
+
+    @Override
+    public Result download(final String url, final int depth) {
+        return download(url, depth, null);
+    }
+
+    /**
+     * Downloads web site up to specified depth. Concurrent calls are serialized.
+     */
+    @Override
+    public synchronized Result download(final String url, final int depth, final List<String> hosts) {
+        try {
+            final String host = URLHosts.getHost(url);
+            if (hosts != null && !hosts.contains(host)) {
+                return new Result(List.of(), Map.of());
+            }
+        } catch (final MalformedURLException e) {
+            return new Result(List.of(), Map.of(url, e));
+        }
+
+        try {
+            for (final DataOutputStream out : outputs) {
+                out.writeByte(CrawlProtocol.START);
+                out.writeBoolean(hosts != null);
+                if (hosts != null) {
+                    CrawlProtocol.writeStrings(out, hosts);
+                }
+            }
+
+            List<Set<String>> layer = route(List.of(url));
+            for (int i = 1; i <= depth && layer.stream().anyMatch(set -> !set.isEmpty()); i++) {
+                for (int worker = 0; worker < outputs.size(); worker++) {
+                    final DataOutputStream out = outputs.get(worker);
+                    out.writeByte(CrawlProtocol.LAYER);
+                    out.writeBoolean(i == depth);
+                    CrawlProtocol.writeStrings(out, layer.get(worker));
+                    out.flush();
+                }
+                final List<String> links = new ArrayList<>();
+                for (final DataInputStream in : inputs) {
+                    links.addAll(CrawlProtocol.readStrings(in));
+                }
+                layer = route(links);
+            }
+
+            final List<String> downloaded = new ArrayList<>();
+            final Map<String, IOException> errors = new HashMap<>();
+            for (final DataOutputStream out : outputs) {
+                out.writeByte(CrawlProtocol.FINISH);
+                out.flush();
+            }
+            for (final DataInputStream in : inputs) {
+                downloaded.addAll(CrawlProtocol.readStrings(in));
+                errors.putAll(CrawlProtocol.readErrors(in));
+            }
+            return new Result(downloaded, errors);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Worker communication failed", e);
+        }
+    }
+
+    private List<Set<String>> route(final Collection<String> links) {
+        final List<Set<String>> batches = new ArrayList<>();
+        for (int i = 0; i < outputs.size(); i++) {
+            batches.add(new LinkedHashSet<>());
+        }
+        for (final String link : links) {
+            batches.get(partition(link, batches.size())).add(link);
+        }
+        return batches;
+    }
+
+    @Override
+    public void close() {
+        for (final DataOutputStream out : outputs) {
+            try {
+                out.writeByte(CrawlProtocol.STOP);
+                out.flush();
+            } catch (final IOException ignore) {
+                // worker is already gone
+            }
+        }
+        for (final Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (final IOException ignore) {
+                // ignore
+            }
+        }
+        for (final Process process : processes) {
+            try {
+                if (!process.waitFor(AWAIT_TIME_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (final InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(final String[] args) {
+        if (args == null || Arrays.stream(args).anyMatch(Objects::isNull) || args.length < 3) {
+            System.err.println("Wrong arguments format=[url depth workers [downloaders extractors perHost [replay url downloadDelay extractDelay]]]");
+            return;
+        }
+
+        try {
+            final String url = args[0];
+            final int depth = Integer.parseInt(args[1]);
+            final int workers = Integer.parseInt(args[2]);
+            final String[] workerArgs = args.length > 3
+                    ? Arrays.copyOfRange(args, 3, args.length)
+                    : new String[]{
+                            Integer.toString(WebCrawler.DEFAULT_DOWNLOADERS_CNT),
+                            Integer.toString(WebCrawler.DEFAULT_EXTRACTORS_CNT),
+                            Integer.toString(WebCrawler.DEFAULT_PER_HOST)
+                    };
+
+            try (final DistributedCrawler crawler = new DistributedCrawler(workers, workerArgs)) {
+                final long start = System.currentTimeMillis();
+                final Result result = crawler.download(url, depth);
+                System.out.println("Downloaded " + result.getDownloaded().size() + " pages, "
+                        + result.getErrors().size() + " errors in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        } catch (final NumberFormatException e) {
+            System.err.println("Wrong number format=[" + e.getMessage() + "]");
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (final IOException | UncheckedIOException e) {
+            System.err.println("Distributed crawl failed=[" + e.getMessage() + "]");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Weighted fair (stride) scheduling of tasks of several tenants on a shared executor.
+ * Every submitted task puts a placeholder into the executor, the placeholder runs
+ * the pending task of the tenant with the smallest pass, so a tenant of weight {@code w}
+ * gets {@code w} times more executions than a tenant of weight {@code 1} while both are busy.
+ */
+class FairScheduler {
+    private static final long STRIDE = 1L << 20;
+    /**
+     * Largest weight, a tenant of larger weight would get zero stride and starve other tenants.
+     */
+    static final int MAX_WEIGHT = (int) STRIDE;
+    private static final Comparator<Tenant> ORDER = Comparator
+            .comparingLong((Tenant tenant) -> tenant.pass)
+            .thenComparingLong(tenant -> tenant.id);
+
+    private final ExecutorService executor;
+    private final PriorityQueue<Tenant> active = new PriorityQueue<>(ORDER);
+    private long virtualTime = 0;
+    private long tenants = 0;
+
+    FairScheduler(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public synchronized Tenant tenant(final int weight) {
+        if (weight <= 0 || weight > MAX_WEIGHT) {
+            throw new IllegalArgumentException("Weight should be from 1 to " + MAX_WEIGHT + "=[" + weight + "]");
+        }
+        return new Tenant(tenants++, STRIDE / weight);
+    }
+
+    public void submit(final Tenant tenant, final Runnable task) {
+        synchronized (this) {
+            tenant.tasks.add(task);
+            if (tenant.tasks.size() == 1) {
+                // idle tenants do not accumulate credit
+                tenant.pass = Math.max(tenant.pass, virtualTime);
+                active.add(tenant);
+            }
+        }
+        executor.submit(this::runNext);
+    }
+
+    private void runNext() {
+        final Runnable task;
+        synchronized (this) {
+            final Tenant tenant = active.poll();
+            if (tenant == null) {
+                return;
+            }
+            task = tenant.tasks.poll();
+            virtualTime = tenant.pass;
+            tenant.pass += tenant.stride;
+            if (!tenant.tasks.isEmpty()) {
+                active.add(tenant);
+            }
+        }
+        task.run();
+    }
+
+    static class Tenant {
+        private final long id;
+        private final long stride;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private long pass = 0;
+
+        private Tenant(final long id, final long stride) {
+            this.id = id;
+            this.stride = stride;
+        }
+    }
+}
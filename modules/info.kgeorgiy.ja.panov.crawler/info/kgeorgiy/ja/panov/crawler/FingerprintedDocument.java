@@ -0,0 +1,15 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+
+/**
+ * Downloaded document with known content fingerprint.
+ * {@link WebCrawler} does not extract links from a document if links of a document with the same
+ * fingerprint were already extracted at the same or smaller depth during the same crawl.
+ */
+public interface FingerprintedDocument extends Document {
+    /**
+     * Returns 64-bit hash of the document content.
+     */
+    long fingerprint();
+}
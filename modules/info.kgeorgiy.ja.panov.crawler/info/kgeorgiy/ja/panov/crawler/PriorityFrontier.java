@@ -0,0 +1,105 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Pending links of a single priority crawl ordered by {@link CrawlPriority}.
+ * At most {@code window} taken links may be processed at the same time,
+ * so the order of downloads follows the priorities rather than the executor queue.
+ */
+class PriorityFrontier {
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingDouble((Entry entry) -> -entry.score)
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final CrawlPriority priority;
+    private final int window;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(ORDER);
+    private long sequence = 0;
+    private int active = 0;
+
+    PriorityFrontier(final CrawlPriority priority, final int window) {
+        this.priority = priority;
+        this.window = window;
+    }
+
+    public void add(final String url, final int depth) {
+        final double score = priority.score(url, depth);
+        synchronized (this) {
+            queue.add(new Entry(url, depth, score, sequence++));
+            notifyAll();
+        }
+    }
+
+    public void addAll(final Collection<String> urls, final int depth) {
+        if (urls.isEmpty()) {
+            return;
+        }
+        final double[] scores = urls.stream().mapToDouble(url -> priority.score(url, depth)).toArray();
+        synchronized (this) {
+            int i = 0;
+            for (final String url : urls) {
+                queue.add(new Entry(url, depth, scores[i++], sequence++));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes the best pending link, waiting for a free slot in the window.
+     *
+     * @return best pending link or {@code null} if the crawl is exhausted.
+     */
+    public synchronized Entry take() throws InterruptedException {
+        while (queue.isEmpty() ? active > 0 : active >= window) {
+            wait();
+        }
+        if (queue.isEmpty()) {
+            return null;
+        }
+        active++;
+        return queue.poll();
+    }
+
+    /**
+     * Marks a taken link as completely processed.
+     */
+    public synchronized void done() {
+        active--;
+        notifyAll();
+    }
+
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (active > 0) {
+            wait();
+        }
+    }
+
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    static class Entry {
+        private final String url;
+        private final int depth;
+        private final double score;
+        private final long sequence;
+
+        private Entry(final String url, final int depth, final double score, final long sequence) {
+            this.url = url;
+            this.depth = depth;
+            this.score = score;
+            this.sequence = sequence;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.ReplayDownloader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts {@code *.ser.gz} replay files of {@link ReplayDownloader} to the format of {@link BinaryReplayDownloader}.
+ */
+public final class ReplayConverter {
+    private static final double LOAD_FACTOR = 0.5;
+
+    // Utility class
+    private ReplayConverter() {}
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, ReplayDownloader.Page> read(final Path source) throws IOException {
+        try (final ObjectInputStream is = new ObjectInputStream(new GZIPInputStream(Files.newInputStream(source)))) {
+            return (Map<String, ReplayDownloader.Page>) is.readObject();
+        } catch (final ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid replay file " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static void write(final Map<String, ReplayDownloader.Page> pages, final Path target) throws IOException {
+        final Map<String, Integer> ids = new LinkedHashMap<>();
+        final Map<String, Integer> typeIds = new LinkedHashMap<>();
+        pages.forEach((url, page) -> {
+            ids.putIfAbsent(url, ids.size());
+            if (page.links != null) {
+                page.links.forEach(link -> ids.putIfAbsent(link, ids.size()));
+            }
+            if (page.exception != null) {
+                typeIds.putIfAbsent(page.exception.getClass().getName(), typeIds.size());
+            }
+        });
+        final String[] urls = ids.keySet().toArray(String[]::new);
+
+        final ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        final int[] offsets = new int[urls.length + 1];
+        for (int id = 0; id < urls.length; id++) {
+            blob.writeBytes(urls[id].getBytes(StandardCharsets.UTF_8));
+            offsets[id + 1] = blob.size();
+        }
+
+        final int hashSize = Integer.highestOneBit(Math.max(1, (int) (urls.length / LOAD_FACTOR))) << 1;
+        final int[] hash = new int[hashSize];
+        for (int id = 0; id < urls.length; id++) {
+            int slot = urls[id].hashCode() & (hashSize - 1);
+            while (hash[slot] != 0) {
+                slot = (slot + 1) & (hashSize - 1);
+            }
+            hash[slot] = id + 1;
+        }
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final int[] pageOffsets = new int[urls.length];
+        Arrays.fill(pageOffsets, -1);
+        for (final Map.Entry<String, ReplayDownloader.Page> entry : pages.entrySet()) {
+            final ReplayDownloader.Page page = entry.getValue();
+            pageOffsets[ids.get(entry.getKey())] = records.size();
+            if (page.exception != null) {
+                records.write(BinaryReplayDownloader.ERROR);
+                writeVarInt(records, typeIds.get(page.exception.getClass().getName()));
+                final String message = page.exception.getMessage();
+                if (message == null) {
+                    writeVarInt(records, 0);
+                } else {
+                    final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+                    writeVarInt(records, bytes.length + 1);
+                    records.writeBytes(bytes);
+                }
+            } else if (page.links == null) {
+                records.write(BinaryReplayDownloader.NO_LINKS);
+            } else {
+                records.write(BinaryReplayDownloader.LINKS);
+                writeVarInt(records, page.links.size());
+                int previous = 0;
+                for (final String link : page.links) {
+                    final int id = ids.get(link);
+                    final int delta = id - previous;
+                    writeVarInt(records, (delta << 1) ^ (delta >> 31));
+                    previous = id;
+                }
+            }
+        }
+
+        final ByteArrayOutputStream types = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(types)) {
+            for (final String type : typeIds.keySet()) {
+                out.writeUTF(type);
+            }
+        }
+
+        final int offsetsPos = 10 * Integer.BYTES + types.size();
+        final int hashPos = offsetsPos + offsets.length * Integer.BYTES;
+        final int pagesPos = hashPos + hash.length * Integer.BYTES;
+        final int blobPos = pagesPos + pageOffsets.length * Integer.BYTES;
+        final int recordsPos = blobPos + blob.size();
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            for (final int value : new int[]{
+                    BinaryReplayDownloader.MAGIC, BinaryReplayDownloader.VERSION, urls.length, hashSize, typeIds.size(),
+                    offsetsPos, hashPos, pagesPos, blobPos, recordsPos
+            }) {
+                out.writeInt(value);
+            }
+            types.writeTo(out);
+            writeInts(out, offsets);
+            writeInts(out, hash);
+            writeInts(out, pageOffsets);
+            blob.writeTo(out);
+            records.writeTo(out);
+        }
+    }
+
+    private static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+        for (final int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeVarInt(final ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static void main(final String[] args) {
+        if (args == null || args.length == 0 || Arrays.stream(args).anyMatch(Objects::isNull)) {
+            System.err.println("Wrong arguments format=[source.ser.gz... ]");
+            return;
+        }
+
+        for (final String arg : args) {
+            try {
+                final Path source = Paths.get(arg);
+                final String name = source.getFileName().toString();
+                final Path target = source.resolveSibling(name.replaceFirst("\\.ser\\.gz$", "") + ".replay");
+                write(read(source), target);
+                System.out.println(source + " -> " + target + " (" + Files.size(source) + " -> " + Files.size(target) + " bytes)");
+            } catch (final IOException | InvalidPathException e) {
+                System.err.println("Cannot convert " + arg + "=[" + e.getMessage() + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package info.kgeorgiy.ja.panov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
+
+import java.net.MalformedURLException;
+
+/**
+ * Allocation-light replacement for {@link URLUtils#getHost(String)}.
+ * Plain {@code http}/{@code https} URLs are parsed by hand, everything unusual
+ * falls back to {@link URLUtils}, so results always agree with it.
+ * URLs are not normalized: crawlers use links exactly as extracted, and hosts are returned as is.
+ */
+public final class URLHosts {
+    private static final String HTTP = "http://";
+    private static final String HTTPS = "https://";
+    private static final int MAX_PORT_DIGITS = 5;
+    private static final int CACHE_SIZE = 1 << 12;
+    private static final String SAFE_TAIL = "-_.!~*'();/:@&=+$,?";
+
+    private static final CacheEntry[] CACHE = new CacheEntry[CACHE_SIZE];
+
+    // Utility class
+    private URLHosts() {}
+
+    public static String getHost(final String url) throws MalformedURLException {
+        final int slot = url.hashCode() & (CACHE_SIZE - 1);
+        final CacheEntry entry = CACHE[slot];
+        if (entry != null && entry.url.equals(url)) {
+            return entry.host;
+        }
+
+        final int end = hostEnd(url);
+        final String host = end < 0 ? URLUtils.getHost(url) : url.substring(url.charAt(4) == 's' ? 8 : 7, end);
+        CACHE[slot] = new CacheEntry(url, host);
+        return host;
+    }
+
+    /**
+     * Returns end index of the host part, or {@code -1} if the URL is not simple
+     * enough to be parsed without {@link java.net.URI}.
+     */
+    private static int hostEnd(final CharSequence url) {
+        final int start;
+        if (startsWith(url, HTTPS)) {
+            start = HTTPS.length();
+        } else if (startsWith(url, HTTP)) {
+            start = HTTP.length();
+        } else {
+            return -1;
+        }
+
+        final int length = url.length();
+        int pos = start;
+        int labelStart = start;
+        while (true) {
+            if (pos == length || !isAlphaNum(url.charAt(pos))) {
+                return -1;
+            }
+            labelStart = pos;
+            while (pos < length && (isAlphaNum(url.charAt(pos)) || url.charAt(pos) == '-')) {
+                pos++;
+            }
+            if (url.charAt(pos - 1) == '-') {
+                return -1;
+            }
+            if (pos == length || url.charAt(pos) != '.') {
+                break;
+            }
+            pos++;
+        }
+        if (!isAlpha(url.charAt(labelStart))) {
+            return -1;
+        }
+
+        final int hostEnd = pos;
+        if (pos < length && url.charAt(pos) == ':') {
+            final int portStart = ++pos;
+            while (pos < length && isDigit(url.charAt(pos))) {
+                pos++;
+            }
+            if (pos == portStart || pos - portStart > MAX_PORT_DIGITS) {
+                return -1;
+            }
+        }
+        if (pos < length && "/?#".indexOf(url.charAt(pos)) < 0) {
+            return -1;
+        }
+
+        for (; pos < length && url.charAt(pos) != '#'; pos++) {
+            final char c = url.charAt(pos);
+            if (c == '%') {
+                if (pos + 2 >= length || !isHexDigit(url.charAt(pos + 1)) || !isHexDigit(url.charAt(pos + 2))) {
+                    return -1;
+                }
+                pos += 2;
+            } else if (!isAlphaNum(c) && SAFE_TAIL.indexOf(c) < 0 && !isOther(c)) {
+                return -1;
+            }
+        }
+        return hostEnd;
+    }
+
+    private static boolean startsWith(final CharSequence url, final String prefix) {
+        if (url.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (url.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAlpha(final char c) {
+        return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z';
+    }
+
+    private static boolean isDigit(final char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private static boolean isAlphaNum(final char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private static boolean isHexDigit(final char c) {
+        return isDigit(c) || 'a' <= c && c <= 'f' || 'A' <= c && c <= 'F';
+    }
+
+    // "other" characters of java.net.URI: non-ASCII, neither control nor space
+    private static boolean isOther(final char c) {
+        return c >= 0x80 && !Character.isSpaceChar(c) && !Character.isISOControl(c);
+    }
+
+    private static class CacheEntry {
+        private final String url;
+        private final String host;
+
+        public CacheEntry(final String url, final String host) {
+            this.url = url;
+            this.host = host;
+        }
+    }
+}
@@ -2,11 +2,13 @@ package info.kgeorgiy.ja.panov.crawler;
 
 import info.kgeorgiy.java.advanced.crawler.*;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class WebCrawler implements AdvancedCrawler {
     private static final int AWAIT_TIME = 800;
@@ -18,62 +20,61 @@ public class WebCrawler implements AdvancedCrawler {
     private final Downloader downloader;
     private final ExecutorService downloaders;
     private final ExecutorService extractors;
+    private final FairScheduler downloadScheduler;
+    private final FairScheduler extractScheduler;
     private final int perHost;
-    private final Map<String, IOException> errors;
+    private final int window;
     private final Map<String, Semaphore> semaphoreByHost;
+    private final CrawlerMetrics metrics = new CrawlerMetrics();
 
     public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost) {
         this.downloader = downloader;
         this.downloaders = Executors.newFixedThreadPool(downloaders);
         this.extractors = Executors.newFixedThreadPool(extractors);
+        this.downloadScheduler = new FairScheduler(this.downloaders);
+        this.extractScheduler = new FairScheduler(this.extractors);
         this.perHost = perHost;
-        this.errors = new ConcurrentHashMap<>();
+        this.window = (int) Math.min((long) downloaders + extractors, Integer.MAX_VALUE);
         this.semaphoreByHost = new ConcurrentHashMap<>();
     }
 
-    private void download(String url, boolean isLastLayer, Phaser phaser, Queue<String> downloadedURLs, Set<String> hostSet) {
+    private void download(Crawl crawl, String url, boolean isLastLayer, Phaser phaser, Queue<String> downloadedURLs) {
         try {
-            String host = URLUtils.getHost(url);
+            String host = URLHosts.getHost(url);
 
             Semaphore semaphore = semaphoreByHost.computeIfAbsent(host, q -> new Semaphore(perHost));
             phaser.register();
-            downloaders.submit(() -> {
+            metrics.downloadQueued();
+            downloadScheduler.submit(crawl.downloads, () -> {
                 try {
-                    semaphore.acquireUninterruptibly();
-                    Document document = downloader.download(url);
-                    if (!isLastLayer) {
-                        extract(url, document, phaser, downloadedURLs, hostSet);
+                    Document document = admitAndDownload(url, host, semaphore);
+                    if (!isLastLayer && !crawl.isDuplicate(document, 0)) {
+                        extract(crawl, url, document, phaser, downloadedURLs);
                     }
                 } catch (IOException e) {
-                    errors.put(url, e);
+                    crawl.errors.put(url, e);
                 } finally {
                     phaser.arriveAndDeregister();
-                    semaphore.release();
                 }
             });
         } catch (MalformedURLException e) {
-            errors.put(url, e);
+            crawl.errors.put(url, e);
         }
     }
 
-    private void extract(String url, Document document, Phaser phaser, Queue<String> downloadedURLs, Set<String> hostSet) {
+    private void extract(Crawl crawl, String url, Document document, Phaser phaser, Queue<String> downloadedURLs) {
         phaser.register();
-        extractors.submit(() -> {
+        metrics.extractionQueued();
+        extractScheduler.submit(crawl.extractions, () -> {
             try {
-                final List<String> extractedLinks = document.extractLinks();
-                downloadedURLs.addAll(hostSet == null
+                final List<String> extractedLinks = timedExtract(document);
+                downloadedURLs.addAll(crawl.hostSet == null
                         ? extractedLinks
                         : extractedLinks.stream()
-                            .filter(link -> {
-                                try {
-                                    return hostSet.contains(URLUtils.getHost(link));
-                                } catch (MalformedURLException ignore) {
-                                    return false;
-                                }
-                            })
+                            .filter(link -> crawl.isAllowed(link, false))
                             .collect(Collectors.toList()));
             } catch (IOException e) {
-                errors.put(url, e);
+                crawl.errors.put(url, e);
             } finally {
                 phaser.arriveAndDeregister();
             }
@@ -87,42 +88,214 @@ public class WebCrawler implements AdvancedCrawler {
 
     @Override
     public Result download(String url, int depth, List<String> hosts) {
+        return download(url, depth, hosts, 1);
+    }
+
+    /**
+     * Downloads web site up to specified depth. Concurrent crawls share download and extraction threads
+     * in proportion to their weights.
+     *
+     * @param url start URL.
+     * @param depth download depth.
+     * @param hosts domains to follow or {@code null} to follow all domains.
+     * @param weight share of this crawl in the shared thread pools, from {@code 1} to {@code 2^20}.
+     * @return download result.
+     */
+    public Result download(String url, int depth, List<String> hosts, int weight) {
+        final Crawl crawl = new Crawl(hosts, weight);
+        if (!crawl.isAllowed(url, true)) {
+            return crawl.result(List.of());
+        }
+
         final Set<String> downloadedURLs = Collections.newSetFromMap(new ConcurrentHashMap<>());
-        final Set<String> hostSet = hosts == null ? null : new HashSet<>(hosts);
+        List<String> currentLayer = List.of(url);
+        for (int i = 1; !currentLayer.isEmpty() && i <= depth; i++) {
+            currentLayer = crawlLayer(crawl, currentLayer.stream().filter(downloadedURLs::add), i == depth);
+        }
+        downloadedURLs.removeAll(crawl.errors.keySet());
+        return crawl.result(downloadedURLs);
+    }
 
-        final List<String> currentLayer = new ArrayList<>();
+    private List<String> crawlLayer(final Crawl crawl, final Stream<String> layer, final boolean isLastLayer) {
         final Queue<String> nextLayer = new ConcurrentLinkedQueue<>();
-        currentLayer.add(url);
-
         final Phaser phaser = new Phaser(1);
+        layer.forEach(url -> download(crawl, url, isLastLayer, phaser, nextLayer));
+        phaser.arriveAndAwaitAdvance();
+        return new ArrayList<>(nextLayer);
+    }
+
+    /**
+     * Starts a crawl of a single partition of the URL space, driven layer by layer from outside.
+     *
+     * @param hosts domains to follow or {@code null} to follow all domains.
+     */
+    Partition partition(final List<String> hosts) {
+        return new Partition(hosts);
+    }
 
+    /**
+     * Downloads web site up to specified depth, most valuable pages first.
+     * Crawl stops when either all reachable pages are processed or {@code maxPages} pages are downloaded.
+     * A page found again at a smaller depth than before is downloaded again, so its links are followed
+     * up to the depth limit and, without the page limit, the same pages are downloaded as by a plain crawl.
+     *
+     * @param url start URL.
+     * @param depth maximal download depth.
+     * @param hosts domains to follow or {@code null} to follow all domains.
+     * @param priority order of downloads.
+     * @param maxPages maximal number of downloads, including downloads with errors and downloads again.
+     * @return download result.
+     */
+    public Result download(
+            final String url,
+            final int depth,
+            final List<String> hosts,
+            final CrawlPriority priority,
+            final int maxPages
+    ) {
+        final Crawl crawl = new Crawl(hosts, 1);
+        final Map<String, Integer> depths = new ConcurrentHashMap<>();
+        final Set<String> downloaded = ConcurrentHashMap.newKeySet();
+        final PriorityFrontier frontier = new PriorityFrontier(priority, window);
+
+        if (crawl.isAllowed(url, true) && depth > 0) {
+            depths.put(url, 1);
+            frontier.add(url, 1);
+        }
+        try {
+            for (int pages = 0; pages < maxPages; ) {
+                final PriorityFrontier.Entry entry = frontier.take();
+                if (entry == null) {
+                    break;
+                }
+                if (depths.get(entry.getUrl()) < entry.getDepth()) {
+                    // found again at a smaller depth, the shallower entry is pending
+                    frontier.done();
+                    continue;
+                }
+                downloadEntry(crawl, entry, depth, frontier, depths, downloaded);
+                pages++;
+            }
+            frontier.awaitIdle();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return crawl.result(downloaded);
+    }
+
+    private void downloadEntry(
+            final Crawl crawl,
+            final PriorityFrontier.Entry entry,
+            final int depth,
+            final PriorityFrontier frontier,
+            final Map<String, Integer> depths,
+            final Set<String> downloaded
+    ) {
+        final String url = entry.getUrl();
         final String host;
         try {
-            host = URLUtils.getHost(url);
-        } catch (MalformedURLException e) {
-            errors.put(url, e);
-            return new Result(List.of(), errors);
+            host = URLHosts.getHost(url);
+        } catch (final MalformedURLException e) {
+            crawl.errors.put(url, e);
+            frontier.done();
+            return;
+        }
+        final Semaphore semaphore = semaphoreByHost.computeIfAbsent(host, q -> new Semaphore(perHost));
+
+        metrics.downloadQueued();
+        downloadScheduler.submit(crawl.downloads, () -> {
+            boolean handedOver = false;
+            try {
+                final Document document = admitAndDownload(url, host, semaphore);
+                downloaded.add(url);
+                if (entry.getDepth() < depth && !crawl.isDuplicate(document, entry.getDepth())) {
+                    metrics.extractionQueued();
+                    extractScheduler.submit(crawl.extractions, () -> {
+                        try {
+                            final List<String> links = timedExtract(document).stream()
+                                    .filter(link -> crawl.isAllowed(link, false))
+                                    .filter(link -> lowerDepth(depths, link, entry.getDepth() + 1))
+                                    .collect(Collectors.toList());
+                            frontier.addAll(links, entry.getDepth() + 1);
+                        } catch (final IOException e) {
+                            downloaded.remove(url);
+                            crawl.errors.put(url, e);
+                        } finally {
+                            frontier.done();
+                        }
+                    });
+                    handedOver = true;
+                }
+            } catch (final IOException e) {
+                crawl.errors.put(url, e);
+            } finally {
+                if (!handedOver) {
+                    frontier.done();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the depth of the key unless the same or a smaller one is already recorded.
+     *
+     * @return {@code true} if the depth was recorded.
+     */
+    private static <K> boolean lowerDepth(final Map<K, Integer> depths, final K key, final int depth) {
+        while (true) {
+            final Integer known = depths.putIfAbsent(key, depth);
+            if (known == null) {
+                return true;
+            }
+            if (known <= depth) {
+                return false;
+            }
+            if (depths.replace(key, known, depth)) {
+                return true;
+            }
         }
-        if (hostSet != null && !hostSet.contains(host)) {
-            return new Result(List.of(), errors);
+    }
+
+    private Document admitAndDownload(final String url, final String host, final Semaphore semaphore) throws IOException {
+        metrics.downloadStarted();
+        final long queued = System.nanoTime();
+        semaphore.acquireUninterruptibly();
+        final long admitted = System.nanoTime();
+        metrics.hostAdmitted(host, admitted - queued);
+        boolean success = false;
+        try {
+            final Document document = downloader.download(url);
+            success = true;
+            return document;
+        } finally {
+            semaphore.release();
+            metrics.downloadFinished(System.nanoTime() - admitted, success);
         }
+    }
 
-        for (int i = 1; !currentLayer.isEmpty() && i <= depth; i++) {
-            final int layerInd = i;
-            nextLayer.clear();
-            currentLayer.stream()
-                    .filter(downloadedURLs::add)
-                    .forEach(curUrl -> download(curUrl, layerInd == depth, phaser, nextLayer, hostSet));
-            phaser.arriveAndAwaitAdvance();
-            currentLayer.clear();
-            currentLayer.addAll(nextLayer);
+    private List<String> timedExtract(final Document document) throws IOException {
+        metrics.extractionStarted();
+        final long start = System.nanoTime();
+        int links = -1;
+        try {
+            final List<String> result = document.extractLinks();
+            links = result.size();
+            return result;
+        } finally {
+            metrics.extractionFinished(System.nanoTime() - start, links);
         }
-        downloadedURLs.removeAll(errors.keySet());
-        return new Result(new ArrayList<>(downloadedURLs), errors);
+    }
+
+    /**
+     * Returns metrics of this crawler. Use {@link CrawlerMetrics#register()} to expose them over JMX.
+     */
+    public CrawlerMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public void close() {
+        metrics.unregister();
         shutDownPool(downloaders);
         shutDownPool(extractors);
     }
@@ -138,6 +311,83 @@ public class WebCrawler implements AdvancedCrawler {
         }
     }
 
+    /**
+     * State of a single {@code download} call.
+     */
+    private class Crawl {
+        private final Set<String> hostSet;
+        private final Map<String, IOException> errors = new ConcurrentHashMap<>();
+        private final Map<Long, Integer> extractedDepths = new ConcurrentHashMap<>();
+        private final FairScheduler.Tenant downloads;
+        private final FairScheduler.Tenant extractions;
+
+        private Crawl(final List<String> hosts, final int weight) {
+            this.hostSet = hosts == null ? null : new HashSet<>(hosts);
+            this.downloads = downloadScheduler.tenant(weight);
+            this.extractions = extractScheduler.tenant(weight);
+        }
+
+        private boolean isAllowed(final String url, final boolean recordError) {
+            if (hostSet == null && !recordError) {
+                return true;
+            }
+            try {
+                return hostSet == null || hostSet.contains(URLHosts.getHost(url));
+            } catch (final MalformedURLException e) {
+                if (recordError) {
+                    errors.put(url, e);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Checks whether links of a document with the same content were already extracted during this crawl
+         * at the same or smaller depth. Layered crawls extract documents in order of depth and pass {@code 0}.
+         */
+        private boolean isDuplicate(final Document document, final int depth) {
+            if (!(document instanceof FingerprintedDocument)) {
+                return false;
+            }
+            final long fingerprint = ((FingerprintedDocument) document).fingerprint();
+            if (lowerDepth(extractedDepths, fingerprint, depth)) {
+                return false;
+            }
+            metrics.duplicateSkipped();
+            return true;
+        }
+
+        private Result result(final Collection<String> downloaded) {
+            return new Result(new ArrayList<>(downloaded), errors);
+        }
+    }
+
+    /**
+     * BFS crawl of pages owned by a single {@link CrawlWorker}.
+     */
+    class Partition {
+        private final Crawl crawl;
+        private final Set<String> downloadedURLs = new HashSet<>();
+
+        private Partition(final List<String> hosts) {
+            this.crawl = new Crawl(hosts, 1);
+        }
+
+        /**
+         * Downloads not yet seen pages of the current layer.
+         *
+         * @return links of the next layer, including links owned by other partitions.
+         */
+        public List<String> crawlLayer(final List<String> urls, final boolean isLastLayer) {
+            return WebCrawler.this.crawlLayer(crawl, urls.stream().filter(downloadedURLs::add), isLastLayer);
+        }
+
+        public Result result() {
+            downloadedURLs.removeAll(crawl.errors.keySet());
+            return crawl.result(downloadedURLs);
+        }
+    }
+
     public static void main(final String[] args) {
         if (args == null || Arrays.stream(args).anyMatch(Objects::isNull)) {
             System.err.println("Arguments should be not null");
@@ -151,6 +401,11 @@ public class WebCrawler implements AdvancedCrawler {
             final String url = args[0];
 
             try (final WebCrawler webCrawler = new WebCrawler(new CachingDownloader(), downloaders, extractors, perHost)) {
+                try {
+                    System.out.println("Metrics MBean: " + webCrawler.getMetrics().register());
+                } catch (final JMException e) {
+                    System.err.println("Metrics MBean cannot be registered=[" + e.getMessage() + "]");
+                }
                 final Result result = webCrawler.download(url, depth);
 
                 System.out.println("Downloaded URLs:");
@@ -159,6 +414,8 @@ public class WebCrawler implements AdvancedCrawler {
                 result.getErrors().forEach(
                         (URL, error) -> System.out.println("URL:=[" + URL + "] " + "Error=[" + error.getMessage() + "]")
                 );
+                System.out.println("Metrics:");
+                System.out.println(webCrawler.getMetrics().snapshot());
             } catch (IOException e) {
                 System.err.println("Downloader cannot be created=[" + e.getMessage() + "]");
             }
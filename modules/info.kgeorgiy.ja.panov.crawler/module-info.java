@@ -1,4 +1,9 @@
 module info.kgeorgiy.ja.panov.crawler {
     requires info.kgeorgiy.java.advanced.crawler;
+    requires java.management;
+    requires junit;
+
     exports info.kgeorgiy.ja.panov.crawler;
+
+    opens info.kgeorgiy.ja.panov.crawler to junit;
 }
\ No newline at end of file
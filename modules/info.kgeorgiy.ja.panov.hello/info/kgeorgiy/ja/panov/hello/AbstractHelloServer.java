@@ -2,12 +2,28 @@ package info.kgeorgiy.ja.panov.hello;
 
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
+import javax.management.JMException;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.function.Supplier;
 
 public abstract class AbstractHelloServer implements HelloServer {
-    protected static void abstractMain(final String[] args, final Supplier<HelloServer> serverSupplier) {
+    private static final long LOG_PERIOD_MILLISECONDS = 10_000;
+
+    protected final ServerMetrics metrics = new ServerMetrics(getClass().getSimpleName());
+
+    /**
+     * Returns metrics of this server. Use {@link ServerMetrics#register()} to expose them over JMX.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts the server with metrics exposed over JMX and logged periodically, serves until standard input is closed.
+     */
+    protected static void abstractMain(final String[] args, final Supplier<AbstractHelloServer> serverSupplier) {
         if (args == null || args.length != 2 || Arrays.stream(args).anyMatch(Objects::isNull)) {
             System.err.println("Wrong arguments format=[port threads]");
             return;
@@ -17,8 +33,20 @@ public abstract class AbstractHelloServer implements HelloServer {
             final int port = Integer.parseInt(args[0]);
             final int threads = Integer.parseInt(args[1]);
 
-            try (final HelloServer helloServer = serverSupplier.get()) {
+            try (final AbstractHelloServer helloServer = serverSupplier.get()) {
                 helloServer.start(port, threads);
+                try {
+                    System.out.println("Metrics MBean: " + helloServer.getMetrics().register());
+                } catch (final JMException e) {
+                    System.err.println("Metrics MBean cannot be registered=[" + e.getMessage() + "]");
+                }
+                helloServer.getMetrics().startLogging(LOG_PERIOD_MILLISECONDS);
+                while (System.in.read() >= 0) {
+                    // serve until end of input
+                }
+                System.out.println(helloServer.getMetrics().snapshot());
+            } catch (final IOException e) {
+                System.err.println("Standard input cannot be read=[" + e.getMessage() + "]");
             }
         } catch (final NumberFormatException e) {
             System.err.println("Wrong number format=[" + e.getMessage() + "]");
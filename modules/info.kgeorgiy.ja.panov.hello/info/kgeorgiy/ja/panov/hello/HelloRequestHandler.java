@@ -0,0 +1,21 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Responds with {@code Hello, <request>}, writing only the prefix before the request in place.
+ */
+public class HelloRequestHandler implements RequestHandler {
+    private static final byte[] RESPONSE_PREFIX_BYTES = Utils.RESPONSE_PREFIX.getBytes(Utils.CHARSET);
+
+    @Override
+    public int headroom() {
+        return RESPONSE_PREFIX_BYTES.length;
+    }
+
+    @Override
+    public boolean handle(final ByteBuffer request, final ByteBuffer response, final Completion completion) {
+        response.put(RESPONSE_PREFIX_BYTES).position(request.limit());
+        return true;
+    }
+}
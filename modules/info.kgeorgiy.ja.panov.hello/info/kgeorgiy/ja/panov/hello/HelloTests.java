@@ -0,0 +1,361 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.internal.TextListener;
+import org.junit.runner.JUnitCore;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class HelloTests {
+    private static final Pattern RESPONSE_PATTERN = Pattern.compile("(\\D*)(\\d+)(\\D+)(\\d+)(\\D*)");
+    private static final List<String> PARTS = List.of(
+            "Hello, ", "Привет, ", "你好", "ආයුබෝවන් ", "_", "-", "x", " ",
+            "0", "1", "3", "12", "007", "00",
+            "٣", "۵", "३", "３",
+            "2147483647", "2147483648", "99999999999", "00000000000000000001"
+    );
+    private static final int RANDOM_RESPONSES = 1_000_000;
+    private static final int BENCHMARK_ROUNDS = 5;
+    private static final int BENCHMARK_ITERATIONS = 2_000_000;
+    private static final long SLOW_LINK_DELAY_MILLIS = 800;
+    private static final int SLOW_LINK_REQUESTS = 4;
+    private static final int SERVER_PORT = 28890;
+    private static final int SHED_TIMEOUT_MILLIS = 1000;
+    private static final long SHED_QUEUE_DELAY_MILLIS = 20;
+    private static final int[] LOAD_SOCKETS = {1, 2, 4};
+    private static final int LOAD_THREADS = 4;
+    private static final int LOAD_CHANNELS = 8;
+    private static final int LOAD_WINDOW = 16;
+    private static final long LOAD_WARMUP_MILLIS = 1000;
+    private static final long LOAD_MILLIS = 3000;
+
+    /**
+     * Validation of the response before it was done on bytes.
+     */
+    private static boolean validateResponseRegex(final String response, final int threadNum, final int requestNum) {
+        final Matcher matcher = RESPONSE_PATTERN.matcher(response);
+        return matcher.matches()
+                && matcher.group(2).equals(Integer.toString(threadNum))
+                && matcher.group(4).equals(Integer.toString(requestNum));
+    }
+
+    private static void assertSameValidation(final String response, final int threadNum, final int requestNum) {
+        final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2).put((byte) '7').put(bytes).put((byte) '7');
+        buffer.position(1).limit(bytes.length + 1);
+        Assert.assertEquals(
+                "Response=[" + response + "] thread=" + threadNum + " request=" + requestNum,
+                validateResponseRegex(response, threadNum, requestNum),
+                Utils.validateResponse(buffer, threadNum, requestNum)
+        );
+        Assert.assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void test_validateResponse() {
+        Assert.assertTrue(Utils.validateResponse(ByteBuffer.wrap("Hello, prefix7_123".getBytes()), 7, 123));
+        Assert.assertFalse(Utils.validateResponse(ByteBuffer.wrap("Hello, prefix7_124".getBytes()), 7, 123));
+        Assert.assertFalse(Utils.validateResponse(ByteBuffer.wrap("Hello, prefix07_123".getBytes()), 7, 123));
+        Assert.assertFalse(Utils.validateResponse(ByteBuffer.wrap("Hello, prefix7_123_1".getBytes()), 7, 123));
+        Assert.assertFalse(Utils.validateResponse(ByteBuffer.wrap("Hello, prefix7123".getBytes()), 7, 123));
+    }
+
+    @Test
+    public void test_validateResponseEdgeCases() {
+        for (final String response : List.of(
+                "", "7", "7_", "_7_123_", "7_123", "0_0", "00_0", "0_00", "7٣123", "7３123", "７_123",
+                "7_2147483647", "7_2147483648", "7_4294967296", "7_99999999999999999999", "7_00000000000000000123",
+                "2147483647_2147483647", "Hello, ١٢٣ 7_123", "你好7你好123你好"
+        )) {
+            assertSameValidation(response, 7, 123);
+            assertSameValidation(response, 0, 0);
+            assertSameValidation(response, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void test_validateResponseMatchesRegex() {
+        final Random random = new Random(4875043285743285204L);
+        for (int i = 0; i < RANDOM_RESPONSES; i++) {
+            final int threadNum = random.nextInt(4);
+            final int requestNum = random.nextInt(14);
+            final StringBuilder response = new StringBuilder();
+            if (random.nextInt(3) == 0) {
+                response.append(PARTS.get(random.nextInt(8))).append(threadNum)
+                        .append(PARTS.get(random.nextInt(PARTS.size()))).append(requestNum);
+            } else {
+                for (int parts = random.nextInt(7); parts > 0; parts--) {
+                    response.append(PARTS.get(random.nextInt(PARTS.size())));
+                }
+            }
+            assertSameValidation(response.toString(), threadNum, requestNum);
+        }
+    }
+
+    /**
+     * Runs the client against a server answering after {@value #SLOW_LINK_DELAY_MILLIS} ms,
+     * which is more than twice the initial retransmission timeout.
+     * The timeout backs off until a request is answered without retransmission, then follows the round-trip time,
+     * so only the first two requests are retransmitted.
+     */
+    private static void assertSlowLinkLearned(final HelloClient client) throws IOException {
+        final AtomicInteger received = new AtomicInteger();
+        final Set<String> requests = ConcurrentHashMap.newKeySet();
+        final ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor();
+        try (final DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final Thread receiver = new Thread(() -> {
+                while (!server.isClosed()) {
+                    final DatagramPacket packet = new DatagramPacket(new byte[Utils.MAX_DATAGRAM_SIZE], Utils.MAX_DATAGRAM_SIZE);
+                    try {
+                        server.receive(packet);
+                    } catch (final IOException e) {
+                        continue;
+                    }
+                    received.incrementAndGet();
+                    final String request = Utils.packetToString(packet);
+                    requests.add(request);
+                    packet.setData(("Hello, " + request).getBytes(StandardCharsets.UTF_8));
+                    delays.schedule(() -> {
+                        try {
+                            server.send(packet);
+                        } catch (final IOException ignored) {
+                            // lost response
+                        }
+                    }, SLOW_LINK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            });
+            receiver.start();
+            client.run("localhost", server.getLocalPort(), "slow_", 1, SLOW_LINK_REQUESTS);
+        } finally {
+            delays.shutdownNow();
+        }
+        Assert.assertEquals(SLOW_LINK_REQUESTS, requests.size());
+        Assert.assertTrue("Requests sent=[" + received.get() + "]", received.get() <= SLOW_LINK_REQUESTS + 2);
+    }
+
+    @Test
+    public void test_slowLinkBlockingClient() throws IOException {
+        assertSlowLinkLearned(new HelloUDPClient());
+    }
+
+    @Test
+    public void test_slowLinkNonblockingClient() throws IOException {
+        assertSlowLinkLearned(new HelloUDPNonblockingClient());
+    }
+
+    @Test
+    public void test_nonblockingServerRequestSizes() throws IOException {
+        try (final HelloUDPNonblockingServer server = new HelloUDPNonblockingServer(1, 4, 0, true);
+             final DatagramSocket socket = new DatagramSocket()) {
+            server.start(SERVER_PORT, 1);
+            socket.setSoTimeout(1000);
+            socket.connect(InetAddress.getLoopbackAddress(), SERVER_PORT);
+            for (final int size : new int[]{1, 2048, 2049, 30_000, 2, Utils.MAX_DATAGRAM_SIZE - Utils.RESPONSE_PREFIX.length()}) {
+                final byte[] request = "x".repeat(size).getBytes(StandardCharsets.UTF_8);
+                socket.send(new DatagramPacket(request, request.length));
+                final DatagramPacket response = new DatagramPacket(new byte[Utils.MAX_DATAGRAM_SIZE], Utils.MAX_DATAGRAM_SIZE);
+                socket.receive(response);
+                Assert.assertEquals("Request size=[" + size + "]",
+                        Utils.RESPONSE_PREFIX + "x".repeat(size), Utils.packetToString(response));
+            }
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + SHED_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void send(final DatagramSocket socket, final HelloUDPNonblockingServer server, final String request)
+            throws IOException, InterruptedException {
+        final long received = server.getMetrics().getPacketsReceived();
+        final byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(bytes, bytes.length));
+        await(() -> server.getMetrics().getPacketsReceived() > received);
+    }
+
+    /**
+     * Checks that exactly the specified requests are answered.
+     */
+    private static void assertAnswered(final DatagramSocket socket, final String... requests) throws IOException {
+        final Set<String> responses = new HashSet<>();
+        try {
+            while (true) {
+                final DatagramPacket response = new DatagramPacket(new byte[Utils.MAX_DATAGRAM_SIZE], Utils.MAX_DATAGRAM_SIZE);
+                socket.receive(response);
+                responses.add(Utils.packetToString(response));
+            }
+        } catch (final SocketTimeoutException ignored) {
+            // no more responses
+        }
+        final Set<String> expected = new HashSet<>();
+        for (final String request : requests) {
+            expected.add(Utils.RESPONSE_PREFIX + request);
+        }
+        Assert.assertEquals(expected, responses);
+    }
+
+    @Test
+    public void test_nonblockingServerShedsOverLimit() throws IOException, InterruptedException {
+        final Queue<RequestHandler.Completion> completions = new ConcurrentLinkedQueue<>();
+        final RequestHandler handler = new HelloRequestHandler() {
+            @Override
+            public boolean handle(final ByteBuffer request, final ByteBuffer response, final Completion completion) {
+                super.handle(request, response, completion);
+                completions.add(completion);
+                return false;
+            }
+        };
+        try (final HelloUDPNonblockingServer server = new HelloUDPNonblockingServer(handler, 1, 4, 2, false);
+             final DatagramSocket socket = new DatagramSocket()) {
+            server.start(SERVER_PORT, 1);
+            socket.setSoTimeout(SHED_TIMEOUT_MILLIS);
+            socket.connect(InetAddress.getLoopbackAddress(), SERVER_PORT);
+            for (int i = 0; i < 5; i++) {
+                send(socket, server, "shed_" + i);
+            }
+            await(() -> completions.size() == 2);
+            Assert.assertEquals(3, server.getMetrics().getRequestsShed());
+            completions.forEach(RequestHandler.Completion::complete);
+            assertAnswered(socket, "shed_0", "shed_1");
+            Assert.assertEquals(2, server.getMetrics().getPacketsSent());
+        }
+    }
+
+    @Test
+    public void test_nonblockingServerShedsDelayed() throws IOException, InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final RequestHandler handler = new HelloRequestHandler() {
+            @Override
+            public boolean handle(final ByteBuffer request, final ByteBuffer response, final Completion completion) {
+                started.countDown();
+                try {
+                    released.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.handle(request, response, completion);
+            }
+        };
+        try (final HelloUDPNonblockingServer server = new HelloUDPNonblockingServer(handler, 1, 4, 100, false);
+             final DatagramSocket socket = new DatagramSocket()) {
+            server.start(SERVER_PORT, 1);
+            socket.setSoTimeout(SHED_TIMEOUT_MILLIS);
+            socket.connect(InetAddress.getLoopbackAddress(), SERVER_PORT);
+            send(socket, server, "delay_0");
+            started.await();
+            send(socket, server, "delay_1");
+            Thread.sleep(SHED_QUEUE_DELAY_MILLIS);
+            send(socket, server, "delay_2");
+            send(socket, server, "delay_3");
+            Assert.assertEquals(2, server.getMetrics().getRequestsShed());
+            released.countDown();
+            assertAnswered(socket, "delay_0", "delay_1");
+            Assert.assertEquals(2, server.getMetrics().getPacketsSent());
+        }
+    }
+
+    /**
+     * Compares throughput of validation on bytes with decoding and matching the pattern.
+     */
+    private static void benchmarkValidateResponse() {
+        final byte[] bytes = "Привет, prefix_request_7_123".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            int valid = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                if (validateResponseRegex(new String(bytes, StandardCharsets.UTF_8), 7, 123)) {
+                    valid++;
+                }
+            }
+            final long middle = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                if (Utils.validateResponse(buffer, 7, 123)) {
+                    valid++;
+                }
+            }
+            final long end = System.nanoTime();
+            System.out.printf(
+                    "decode + regex: %.1f ns/op, bytes: %.1f ns/op (%d valid)%n",
+                    (double) (middle - start) / BENCHMARK_ITERATIONS,
+                    (double) (end - middle) / BENCHMARK_ITERATIONS,
+                    valid
+            );
+        }
+    }
+
+    /**
+     * Measures closed-loop throughput of the server over loopback after a warm-up.
+     */
+    private static void benchmarkLoad(final String name, final int sockets, final HelloServer server) throws IOException {
+        try (server) {
+            server.start(SERVER_PORT, LOAD_THREADS);
+            final HelloUDPNonblockingClient client = new HelloUDPNonblockingClient();
+            client.load("localhost", SERVER_PORT, "load_", LOAD_CHANNELS, LOAD_WINDOW, 0, LOAD_WARMUP_MILLIS);
+            final LoadReport report = client.load("localhost", SERVER_PORT, "load_", LOAD_CHANNELS, LOAD_WINDOW, 0, LOAD_MILLIS);
+            System.out.printf("%s, %d sockets: %s%n", name, sockets, report);
+        }
+    }
+
+    /**
+     * Compares throughput of both servers with different numbers of {@code SO_REUSEPORT} sockets.
+     */
+    private static void benchmarkSockets() throws IOException {
+        for (final int sockets : LOAD_SOCKETS) {
+            benchmarkLoad("HelloUDPServer", sockets, new HelloUDPServer(true, sockets));
+            benchmarkLoad("HelloUDPNonblockingServer", sockets, new HelloUDPNonblockingServer(sockets));
+        }
+    }
+
+    /**
+     * Runs the tests, the benchmark of response validation if the first argument is {@code -bench},
+     * or the load test of socket sharding if it is {@code -sockets}.
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && "-bench".equals(args[0])) {
+            benchmarkValidateResponse();
+            return;
+        }
+        if (args.length > 0 && "-sockets".equals(args[0])) {
+            try {
+                benchmarkSockets();
+            } catch (final IOException e) {
+                System.err.println("I/O error occurs=[" + e.getMessage() + "]");
+            }
+            return;
+        }
+        JUnitCore junit = new JUnitCore();
+        junit.addListener(new TextListener(System.out));
+        junit.run(HelloTests.class);
+        System.exit(0);
+    }
+}
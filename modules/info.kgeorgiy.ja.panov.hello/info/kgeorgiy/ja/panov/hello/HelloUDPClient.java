@@ -5,58 +5,87 @@ import info.kgeorgiy.java.advanced.hello.HelloClient;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 
 public class HelloUDPClient extends AbstractHelloClient {
     private static final int SO_TIMEOUT_MILLISECONDS = 300;
-    private static final int AWAIT_TIME_SCALE_MILLISECONDS = 10_000;
-    private static final Pattern VALIDATE_PATTERN = Pattern.compile("(\\D*)(\\d+)(\\D+)(\\d+)(\\D*)");
+    private static final int AWAIT_TIME_SCALE_MILLISECONDS = 60_000;
+    private static final int SESSION_RESPONSE_HEADROOM = 4096;
 
+    private final boolean virtualThreads;
+
+    public HelloUDPClient() {
+        this(false);
+    }
+
+    /**
+     * @param virtualThreads if {@code true}, every thread of requests is a session thread
+     *                       (see {@link Utils#newSessionExecutor()}) with a receive buffer sized from its requests,
+     *                       so tens of thousands of threads may be simulated.
+     *                       The buffer grows to the maximal datagram size if a response does not fit.
+     *                       Otherwise, a fixed pool of platform threads is used.
+     */
+    public HelloUDPClient(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
 
     @Override
     public void run(String host, int port, String prefix, int threads, int requests) {
         final InetSocketAddress address = new InetSocketAddress(host, port);
-        final ExecutorService executorsPool = Executors.newFixedThreadPool(threads);
+        final ExecutorService executorsPool = virtualThreads
+                ? Utils.newSessionExecutor()
+                : Executors.newFixedThreadPool(threads);
 
         IntStream.range(0, threads)
                 .forEach(threadNumber -> executorsPool.submit(() -> createTask(prefix, requests, address, threadNumber)));
-        Utils.shutDownExecutorService(executorsPool, AWAIT_TIME_SCALE_MILLISECONDS * threads * requests);
+        Utils.shutDownExecutorService(executorsPool, (long) AWAIT_TIME_SCALE_MILLISECONDS * threads * requests);
     }
 
     private void createTask(final String prefix, final int requests, final InetSocketAddress address, final int threadNumber) {
         try (final DatagramSocket datagramSocket = new DatagramSocket()) {
-            datagramSocket.setSoTimeout(SO_TIMEOUT_MILLISECONDS);
-
-            final int receiveBufferSize = datagramSocket.getReceiveBufferSize();
+            final RetransmissionTimer timer = new RetransmissionTimer(SO_TIMEOUT_MILLISECONDS);
+            final int receiveBufferSize = virtualThreads
+                    ? sessionReceiveBufferSize(prefix, threadNumber, requests)
+                    : datagramSocket.getReceiveBufferSize();
+            ByteBuffer response = ByteBuffer.allocate(receiveBufferSize);
 
             final DatagramPacket requestPacket = new DatagramPacket(new byte[0], 0, address);
-            final DatagramPacket responsePacket = new DatagramPacket(new byte[receiveBufferSize], receiveBufferSize);
+            final DatagramPacket responsePacket = new DatagramPacket(response.array(), receiveBufferSize);
 
             for (int requestNumber = 0; requestNumber < requests; requestNumber++) {
                 final String requestString = prefix + threadNumber + "_" + requestNumber;
                 System.out.println("Request=[" + requestString + "]");
                 requestPacket.setData(requestString.getBytes());
                 String responseString = "";
+                boolean retransmitted = false;
                 while (!Thread.currentThread().isInterrupted()) {
+                    final long sentAt = System.nanoTime();
                     try {
                         datagramSocket.send(requestPacket);
-                        responseString = Utils.receive(datagramSocket, responsePacket, "");
-                        Matcher matcher = VALIDATE_PATTERN.matcher(responseString);
-                        if (matcher.matches() &&
-                                matcher.group(2).equals(Integer.toString(threadNumber)) &&
-                                matcher.group(4).equals(Integer.toString(requestNumber))) {
-                            break;
-                        }
                     } catch (IOException ignore) {
-                        // ignore
+                        // retransmitted on timeout
+                    }
+                    final Reception reception = receiveResponse(datagramSocket, responsePacket, response,
+                            threadNumber, requestNumber, sentAt + timer.getTimeoutNanos());
+                    if (reception == Reception.RESPONSE) {
+                        responseString = Utils.packetToString(responsePacket);
+                        if (!retransmitted) {
+                            timer.sample(System.nanoTime() - sentAt);
+                        }
+                        break;
+                    } else if (reception == Reception.TRUNCATED) {
+                        // the response is lost, resend at once
+                        response = ByteBuffer.allocate(Utils.MAX_DATAGRAM_SIZE);
+                    } else {
+                        timer.backoff();
                     }
+                    retransmitted = true;
                 }
                 System.out.println("Response=[" + responseString + "]");
             }
@@ -65,6 +94,57 @@ public class HelloUDPClient extends AbstractHelloClient {
         }
     }
 
+    /**
+     * Returns size of a session receive buffer, which fits responses of the form {@code greeting + request}
+     * to all requests of the thread.
+     */
+    private static int sessionReceiveBufferSize(final String prefix, final int threadNumber, final int requests) {
+        final String longestRequest = Utils.requestString(prefix, threadNumber, Math.max(0, requests - 1));
+        final int size = longestRequest.getBytes().length + SESSION_RESPONSE_HEADROOM;
+        return Math.min(size, Utils.MAX_DATAGRAM_SIZE);
+    }
+
+    private enum Reception {
+        RESPONSE, TIMEOUT, TRUNCATED
+    }
+
+    /**
+     * Receives datagrams until the response to the request comes or the deadline expires.
+     * Stale and invalid datagrams are dropped. A datagram filling a buffer smaller than
+     * the maximal datagram size may be a truncated response, so the buffer should grow.
+     */
+    private static Reception receiveResponse(
+            final DatagramSocket datagramSocket,
+            final DatagramPacket responsePacket,
+            final ByteBuffer response,
+            final int threadNumber,
+            final int requestNumber,
+            final long deadline
+    ) {
+        while (!Thread.currentThread().isInterrupted()) {
+            final long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                return Reception.TIMEOUT;
+            }
+            try {
+                datagramSocket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                responsePacket.setData(response.array());
+                datagramSocket.receive(responsePacket);
+                if (responsePacket.getLength() == response.capacity() && response.capacity() < Utils.MAX_DATAGRAM_SIZE) {
+                    return Reception.TRUNCATED;
+                }
+                if (Utils.validateResponse(response.limit(responsePacket.getLength()), threadNumber, requestNumber)) {
+                    return Reception.RESPONSE;
+                }
+            } catch (SocketTimeoutException e) {
+                return Reception.TIMEOUT;
+            } catch (IOException ignore) {
+                // wait until the deadline
+            }
+        }
+        return Reception.TIMEOUT;
+    }
+
     public static void main(final String[] args) {
         (new HelloUDPClient()).clientMain(args);
     }
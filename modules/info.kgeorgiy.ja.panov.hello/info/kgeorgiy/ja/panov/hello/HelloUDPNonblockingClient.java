@@ -9,13 +9,71 @@ import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class HelloUDPNonblockingClient extends AbstractHelloClient {
+    private final int batchSize;
     private int threadsNeed;
+    private ByteBuffer receiveBuffer;
+    private long selectorIterations;
+    private long datagramsReceived;
+
+    public HelloUDPNonblockingClient() {
+        this(1);
+    }
+
+    /**
+     * @param batchSize maximal number of datagrams read from a channel per readiness event.
+     *                  If greater than one, the next request is sent in the same selector iteration
+     *                  as the response to the previous one is received.
+     */
+    public HelloUDPNonblockingClient(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size should be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns number of selector iterations of the last {@link #run} call.
+     */
+    public long getSelectorIterations() {
+        return selectorIterations;
+    }
+
+    /**
+     * Returns number of datagrams received during the last {@link #run} call.
+     */
+    public long getDatagramsReceived() {
+        return datagramsReceived;
+    }
+
+    /**
+     * Generates load without per-request output.
+     *
+     * @param channels number of channels.
+     * @param window maximal number of outstanding requests per channel.
+     * @param rate total requests per second or {@code 0} to send as soon as a window slot is free.
+     * @param durationMillis time to generate load for, outstanding requests are awaited afterwards.
+     * @return throughput and latency report.
+     * @throws IOException if channels cannot be created.
+     */
+    public LoadReport load(
+            final String host,
+            final int port,
+            final String prefix,
+            final int channels,
+            final int window,
+            final int rate,
+            final long durationMillis
+    ) throws IOException {
+        return new LoadGenerator(prefix, channels, window, rate, durationMillis).run(new InetSocketAddress(host, port));
+    }
 
     @Override
     public void run(final String host, final int port, final String prefix, final int threads, final int requests) {
@@ -39,17 +97,20 @@ public class HelloUDPNonblockingClient extends AbstractHelloClient {
             }
 
             threadsNeed = threads;
+            receiveBuffer = ByteBuffer.allocate(Utils.MAX_DATAGRAM_SIZE);
+            selectorIterations = 0;
+            datagramsReceived = 0;
             while (threadsNeed > 0) {
-                selector.select(Utils.TIMEOUT_MILLISECONDS);
-                if (selector.selectedKeys().isEmpty()) {
-                    selector.keys().forEach(i -> i.interestOps(SelectionKey.OP_WRITE));
-                }
+                final long wait = nextDeadline(selector) - System.nanoTime();
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                selectorIterations++;
+                retransmitExpired(selector);
                 Utils.iterateSelectedKeys(selector, key -> {
                     final HelloAttr attr = (HelloAttr) key.attachment();
 
                     final DatagramChannel datagramChannel = (DatagramChannel) key.channel();
                     if (key.isReadable()) {
-                        read(datagramChannel, attr, key);
+                        read(prefix, datagramChannel, attr, key);
                     } else if (key.isWritable()) {
                         write(prefix, datagramChannel, attr, key);
                     }
@@ -65,18 +126,32 @@ public class HelloUDPNonblockingClient extends AbstractHelloClient {
         }
     }
 
-    private void read(final DatagramChannel datagramChannel, final HelloAttr attr, final SelectionKey key) throws IOException {
-        final ByteBuffer byteBuffer = ByteBuffer.allocate(datagramChannel.socket().getReceiveBufferSize());
-        datagramChannel.read(byteBuffer);
-        final String receive = Utils.byteBufferToString(byteBuffer);
-        if (Utils.validateReceive(receive, attr.getThreadNumber(), attr.getRequestNumber())) {
-            attr.nextRequest();
-            if (attr.isCompleted()) {
-                threadsNeed--;
-                datagramChannel.close();
-            } else {
-                key.interestOps(SelectionKey.OP_WRITE);
+    private void read(
+            final String prefix,
+            final DatagramChannel datagramChannel,
+            final HelloAttr attr,
+            final SelectionKey key
+    ) throws IOException {
+        for (int i = 0; i < batchSize; i++) {
+            receiveBuffer.clear();
+            if (datagramChannel.read(receiveBuffer) == 0) {
+                return;
+            }
+            datagramsReceived++;
+            if (Utils.validateResponse(receiveBuffer.flip(), attr.getThreadNumber(), attr.getRequestNumber())) {
+                attr.received(System.nanoTime());
+                attr.nextRequest();
+                if (attr.isCompleted()) {
+                    threadsNeed--;
+                    datagramChannel.close();
+                    return;
+                } else if (batchSize == 1) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    write(prefix, datagramChannel, attr, key);
+                }
             }
+            // stale and invalid datagrams are dropped, the request is retransmitted on timeout only
         }
     }
 
@@ -89,10 +164,34 @@ public class HelloUDPNonblockingClient extends AbstractHelloClient {
         final String request = Utils.requestString(prefix, attr.getThreadNumber(), attr.getRequestNumber());
         final ByteBuffer byteBuffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8));
         datagramChannel.write(byteBuffer);
+        attr.sent(System.nanoTime());
         System.out.println("Request=[" + request + "]");
         key.interestOps(SelectionKey.OP_READ);
     }
 
+    private static long nextDeadline(final Selector selector) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Utils.TIMEOUT_MILLISECONDS);
+        for (final SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.interestOps() == SelectionKey.OP_READ) {
+                deadline = Math.min(deadline, ((HelloAttr) key.attachment()).getDeadline());
+            }
+        }
+        return deadline;
+    }
+
+    private static void retransmitExpired(final Selector selector) {
+        final long now = System.nanoTime();
+        for (final SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.interestOps() == SelectionKey.OP_READ) {
+                final HelloAttr attr = (HelloAttr) key.attachment();
+                if (now - attr.getDeadline() >= 0) {
+                    attr.timeout();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
     private List<Channel> channelsFromSelector(final Selector selector) {
         return selector.keys().stream().map(SelectionKey::channel).collect(Collectors.toList());
     }
@@ -100,7 +199,12 @@ public class HelloUDPNonblockingClient extends AbstractHelloClient {
     private static class HelloAttr {
         private final int threadNumber;
         private final int allRequests;
+        private final RetransmissionTimer timer = new RetransmissionTimer(Utils.TIMEOUT_MILLISECONDS);
         private int requests;
+        private int sentRequest = -1;
+        private boolean retransmitted;
+        private long sentAt;
+        private long deadline;
 
         public HelloAttr(final int threadNumber, final int requests) {
             this.threadNumber = threadNumber;
@@ -123,9 +227,58 @@ public class HelloUDPNonblockingClient extends AbstractHelloClient {
         public boolean isCompleted() {
             return requests == 0;
         }
+
+        public void sent(final long now) {
+            retransmitted = sentRequest == getRequestNumber();
+            sentRequest = getRequestNumber();
+            sentAt = now;
+            deadline = now + timer.getTimeoutNanos();
+        }
+
+        public void received(final long now) {
+            if (!retransmitted) {
+                timer.sample(now - sentAt);
+            }
+        }
+
+        public void timeout() {
+            timer.backoff();
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
     }
 
     public static void main(String[] args) {
-        new HelloUDPNonblockingClient().clientMain(args);
+        if (args != null && args.length > 0 && "-load".equals(args[0])) {
+            loadMain(args);
+        } else {
+            new HelloUDPNonblockingClient().clientMain(args);
+        }
+    }
+
+    private static void loadMain(final String[] args) {
+        if (args.length != 8 || Arrays.stream(args).anyMatch(Objects::isNull)) {
+            System.err.println("Wrong arguments format=[-load host port prefix channels window rate seconds]");
+            return;
+        }
+
+        try {
+            final LoadReport report = new HelloUDPNonblockingClient().load(
+                    args[1],
+                    Integer.parseInt(args[2]),
+                    args[3],
+                    Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]),
+                    Integer.parseInt(args[6]),
+                    Long.parseLong(args[7]) * 1000
+            );
+            System.out.println(report);
+        } catch (final NumberFormatException e) {
+            System.err.println("Wrong number format=[" + e.getMessage() + "]");
+        } catch (final IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.err.println("Load generation failed=[" + e.getMessage() + "]");
+        }
     }
 }
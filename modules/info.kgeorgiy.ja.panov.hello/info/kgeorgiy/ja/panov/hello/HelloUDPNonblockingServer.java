@@ -1,128 +1,464 @@
 package info.kgeorgiy.ja.panov.hello;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Reactor-style hello server. Every socket is served by its own event loop, requests are received
+ * into a direct buffer of the loop and copied right after the {@link RequestHandler#headroom() headroom}
+ * of the handler in a pooled direct buffer of {@code 2} KiB, so responses may be built in place.
+ * A larger request gets its own heap buffer. At most {@code 4} batches of free requests are retained per loop.
+ * Workers hand responses back through a queue and wake the loop up only if it is not already
+ * about to flush, so one wakeup sends all responses queued so far.
+ * In overload-control mode, requests are received and dropped at once while the oldest request
+ * waiting for a worker has waited longer than {@code 5} milliseconds, so queueing delay stays near
+ * this target and the kernel receive queue does not grow under sustained overload.
+ * The number of requests in the pipeline of every loop is bounded as well,
+ * which also covers asynchronously completed requests.
+ * In inline mode, the loop processes requests itself while processing is cheaper than
+ * the hand-off to a worker, and offloads them to workers otherwise.
+ */
 public class HelloUDPNonblockingServer extends AbstractHelloServer {
     private static int QUEUE_LENGTH_SCALE = 300;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int REQUEST_BUFFER_SIZE = 2048;
+    private static final int POOLED_BATCHES = 4;
+    private static final long OFFLOAD_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final long SHED_QUEUE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
 
-    private Selector selector;
+    private final RequestHandler handler;
+    private final int sockets;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final boolean inline;
+    private final List<EventLoop> loops = new ArrayList<>();
     private ExecutorService service;
-    private ExecutorService workers;
-    private DatagramChannel datagramChannel;
-    private Queue<ResponseInfo> responseQueue;
+    private ThreadPoolExecutor workers;
+
+    public HelloUDPNonblockingServer() {
+        this(1);
+    }
+
+    /**
+     * @param sockets number of channels bound to the same port with {@code SO_REUSEPORT},
+     *                every channel has its own event loop thread.
+     *                No throughput gain was measured on a single-CPU host (see {@code HelloTests -sockets}),
+     *                more sockets may only help with more cores.
+     */
+    public HelloUDPNonblockingServer(final int sockets) {
+        this(sockets, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param sockets number of channels bound to the same port with {@code SO_REUSEPORT}.
+     * @param batchSize maximal number of datagrams received and sent per selector iteration.
+     */
+    public HelloUDPNonblockingServer(final int sockets, final int batchSize) {
+        this(sockets, batchSize, 0);
+    }
+
+    /**
+     * @param sockets number of channels bound to the same port with {@code SO_REUSEPORT}.
+     * @param batchSize maximal number of datagrams received and sent per selector iteration.
+     * @param maxInFlight maximal number of requests per channel received but not responded yet,
+     *                    further requests are shed right after receiving, as well as requests received
+     *                    while the worker queue is delayed; {@code 0} for no overload control.
+     */
+    public HelloUDPNonblockingServer(final int sockets, final int batchSize, final int maxInFlight) {
+        this(sockets, batchSize, maxInFlight, false);
+    }
+
+    /**
+     * @param sockets number of channels bound to the same port with {@code SO_REUSEPORT}.
+     * @param batchSize maximal number of datagrams received and sent per selector iteration.
+     * @param maxInFlight see {@link #HelloUDPNonblockingServer(int, int, int)}.
+     * @param inline if {@code true}, requests are processed by the event loops while average processing time
+     *               is below {@code 20} microseconds and offloaded to workers otherwise.
+     *               If {@code false}, all requests are processed by workers.
+     */
+    public HelloUDPNonblockingServer(final int sockets, final int batchSize, final int maxInFlight, final boolean inline) {
+        this(new HelloRequestHandler(), sockets, batchSize, maxInFlight, inline);
+    }
+
+    /**
+     * @param handler handler of requests.
+     * @param sockets number of channels bound to the same port with {@code SO_REUSEPORT}.
+     * @param batchSize maximal number of datagrams received and sent per selector iteration.
+     * @param maxInFlight maximal number of requests per channel received but not responded yet,
+     *                    including asynchronously completed ones, see {@link #HelloUDPNonblockingServer(int, int, int)}.
+     * @param inline see {@link #HelloUDPNonblockingServer(int, int, int, boolean)}.
+     */
+    public HelloUDPNonblockingServer(
+            final RequestHandler handler,
+            final int sockets,
+            final int batchSize,
+            final int maxInFlight,
+            final boolean inline
+    ) {
+        if (sockets <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Number of sockets and batch size should be positive");
+        }
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("Maximal number of requests in flight should be non-negative");
+        }
+        this.handler = Objects.requireNonNull(handler);
+        this.sockets = sockets;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.inline = inline;
+    }
 
     @Override
     public void start(final int port, final int threads) {
-        final InetSocketAddress address = new InetSocketAddress(port);
         try {
-            selector = Selector.open();
-            datagramChannel = Utils.createDatagramChannel(
-                    selector,
-                    SelectionKey.OP_READ,
-                    null,
-                    channel -> channel.bind(address)
-            );
-        } catch (IOException e) {
-            try {
-                selector.close();
-            } catch (IOException ignore) {
-                // ignore
+            for (int i = 0; i < sockets; i++) {
+                final int poolSize = maxInFlight > 0
+                        ? Math.min(maxInFlight, POOLED_BATCHES * batchSize)
+                        : POOLED_BATCHES * batchSize;
+                loops.add(new EventLoop(port, sockets > 1, poolSize));
             }
+        } catch (IOException e) {
+            loops.forEach(EventLoop::close);
+            loops.clear();
             System.err.println("I/O error occurs=[" + e.getMessage() + "]");
             return;
         }
-        responseQueue = new ConcurrentLinkedDeque<>();
-        service = Executors.newSingleThreadExecutor();
+        service = Executors.newFixedThreadPool(sockets);
         workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(threads * QUEUE_LENGTH_SCALE), new ThreadPoolExecutor.DiscardPolicy());
+                new ArrayBlockingQueue<>(threads * QUEUE_LENGTH_SCALE),
+                (task, executor) -> ((Request) task).discard());
+
+        metrics.setQueueDepth(() -> loops.stream().mapToLong(loop -> loop.inFlight).sum());
+        loops.forEach(loop -> service.submit(loop::run));
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+        loops.forEach(EventLoop::close);
+        if (workers != null) {
+            Utils.shutDownExecutorService(workers, Utils.AWAIT_TIME_MILLISECONDS);
+            Utils.shutDownExecutorService(service, Utils.AWAIT_TIME_MILLISECONDS);
+        }
+    }
 
-        service.submit(() -> {
+    /**
+     * Selector thread serving a single channel.
+     */
+    private class EventLoop {
+        private final Selector selector;
+        private final DatagramChannel datagramChannel;
+        private final SelectionKey key;
+        private final RequestPool pool;
+        private final ByteBuffer datagram = ByteBuffer.allocateDirect(Utils.MAX_DATAGRAM_SIZE);
+        private final ServerMetrics.Recorder recorder = metrics.recorder();
+        private final Queue<Request> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private Request unsent;
+        private boolean writeInterest;
+        private boolean offloading;
+        private long processingNanos;
+        private volatile int inFlight;
+
+        private EventLoop(final int port, final boolean reusePort, final int poolSize) throws IOException {
+            offloading = !inline;
+            selector = Selector.open();
+            try {
+                datagramChannel = Utils.createDatagramChannel(
+                        selector,
+                        SelectionKey.OP_READ,
+                        null,
+                        channel -> Utils.bind(channel, port, reusePort)
+                );
+            } catch (IOException e) {
+                Utils.closeWithIgnore(selector);
+                throw e;
+            }
+            key = datagramChannel.keyFor(selector);
+            pool = new RequestPool(this, handler, poolSize);
+        }
+
+        private void run() {
             while (!Thread.interrupted() && datagramChannel.isOpen()) {
                 try {
                     selector.select();
+                    metrics.selectorIteration();
+                    wakeupPending.set(false);
+                    Utils.iterateSelectedKeys(selector, selected -> {
+                        if (selected.isReadable()) {
+                            read();
+                        }
+                    });
+                    flush();
                 } catch (IOException e) {
                     System.err.println("Selector I/O error occurs=[" + e.getMessage() + "]");
                 }
+            }
+        }
 
-                Utils.iterateSelectedKeys(selector, key -> {
-                    if (key.isReadable()) {
-                        read(key);
-                    } else if (key.isWritable()) {
-                        write(key);
-                    }
-                });
+        private void read() {
+            final boolean delayed = maxInFlight > 0 && offloading && queueingDelay() > SHED_QUEUE_DELAY_NANOS;
+            for (int i = 0; i < batchSize; i++) {
+                final SocketAddress address;
+                try {
+                    address = datagramChannel.receive(datagram.clear());
+                } catch (IOException e) {
+                    metrics.receiveFailed();
+                    System.err.println("I/O error occurs while reading=[" + e.getMessage() + "]");
+                    return;
+                }
+                if (address == null) {
+                    return;
+                }
+                metrics.received();
+                if (delayed || maxInFlight > 0 && inFlight >= maxInFlight) {
+                    metrics.shed();
+                    continue;
+                }
+                inFlight++;
+                final Request request = pool.acquire(datagram.flip().remaining());
+                request.received(address, datagram, System.nanoTime());
+                if (metrics.sample()) {
+                    request.trace = ServerMetrics.traceText(request.request);
+                }
+                if (offloading) {
+                    workers.execute(request);
+                } else if (request.process()) {
+                    request.processed();
+                    responses.add(request);
+                }
             }
-        });
-    }
+        }
 
-    private void read(final SelectionKey key) {
-        try {
-            final ByteBuffer byteBuffer = ByteBuffer.allocate(datagramChannel.socket().getReceiveBufferSize());
-            final SocketAddress socketAddress = datagramChannel.receive(byteBuffer);
-            workers.submit(() -> {
-                final String receive = Utils.byteBufferToString(byteBuffer);
-                final String responseString = Utils.RESPONSE_PREFIX + receive;
-                responseQueue.add(new ResponseInfo(responseString, socketAddress));
-                key.interestOps(SelectionKey.OP_WRITE);
+        /**
+         * Returns time the oldest request waiting for a worker has waited so far.
+         */
+        private long queueingDelay() {
+            final Runnable oldest = workers.getQueue().peek();
+            return oldest != null ? System.nanoTime() - ((Request) oldest).receivedAt : 0;
+        }
+
+        private void respond(final Request request) {
+            responses.add(request);
+            if (wakeupPending.compareAndSet(false, true)) {
                 selector.wakeup();
-            });
-        } catch (IOException e) {
-            System.err.println("I/O error occurs while reading=[" + e.getMessage() + "]");
+            }
+        }
+
+        /**
+         * Sends up to {@code batchSize} queued responses, waits for {@code OP_WRITE} if more remain.
+         */
+        private void flush() {
+            for (int i = 0; i < batchSize; i++) {
+                final Request request = unsent != null ? unsent : responses.poll();
+                if (request == null) {
+                    break;
+                }
+                if (request.failed) {
+                    request.failed = false;
+                } else if (!request.response.hasRemaining()) {
+                    metrics.emptyResponse();
+                } else {
+                    try {
+                        if (datagramChannel.send(request.response, request.address) == 0) {
+                            unsent = request;
+                            break;
+                        }
+                        metrics.sent();
+                    } catch (IOException e) {
+                        unsent = null;
+                        metrics.sendFailed();
+                        dropped(request);
+                        System.err.println("I/O error occurs while sending=[" + e.getMessage() + "]");
+                        continue;
+                    }
+                }
+                unsent = null;
+                sent(request);
+            }
+            final boolean pending = unsent != null || !responses.isEmpty();
+            if (pending != writeInterest) {
+                writeInterest = pending;
+                key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void sent(final Request request) {
+            final long now = System.nanoTime();
+            recorder.record(
+                    request.startedAt - request.receivedAt,
+                    request.processedAt - request.startedAt,
+                    now - request.processedAt
+            );
+            if (request.trace != null) {
+                metrics.trace(request.address, request.trace,
+                        ServerMetrics.traceText(request.response.duplicate().rewind()),
+                        request.processedAt - request.startedAt);
+                request.trace = null;
+            }
+            adapt(request.processedAt - request.startedAt);
+            inFlight--;
+            pool.release(request);
         }
-    }
 
-    private void write(final SelectionKey key) {
-        if (!responseQueue.isEmpty()) {
-            final ResponseInfo responseInfo = responseQueue.remove();
-            final ByteBuffer byteBuffer = ByteBuffer.wrap(responseInfo.getResponseString().getBytes(StandardCharsets.UTF_8));
+        /**
+         * Updates moving average of processing time and switches between inline and offloaded processing,
+         * with hysteresis, so a single slow request does not flip the mode.
+         */
+        private void adapt(final long processing) {
+            if (inline) {
+                processingNanos += (processing - processingNanos) / 8;
+                if (offloading ? processingNanos < OFFLOAD_THRESHOLD_NANOS / 2 : processingNanos > OFFLOAD_THRESHOLD_NANOS) {
+                    offloading = !offloading;
+                }
+            }
+        }
+
+        private void handlerFailed(final RuntimeException e) {
+            metrics.handlerFailed(e);
+        }
+
+        private void rejected(final Request request) {
+            metrics.rejected();
+            dropped(request);
+        }
+
+        private void dropped(final Request request) {
+            request.trace = null;
+            inFlight--;
+            pool.release(request);
+        }
+
+        private void close() {
+            metrics.retire(recorder);
             try {
-                datagramChannel.send(byteBuffer, responseInfo.getAddress());
+                datagramChannel.close();
+                selector.close();
             } catch (IOException e) {
-                System.err.println("I/O error occurs while sending=[" + e.getMessage() + "]");
+                e.printStackTrace();
             }
-            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-        } else {
-            key.interestOps(SelectionKey.OP_READ);
         }
     }
 
-    @Override
-    public void close() {
-        try {
-            datagramChannel.close();
-            selector.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Request with its own buffer, becomes the response after processing by a worker or the event loop.
+     * Only requests with direct buffers of {@value #REQUEST_BUFFER_SIZE} bytes after the headroom are pooled.
+     */
+    private static class Request implements Runnable, RequestHandler.Completion {
+        private final EventLoop loop;
+        private final RequestHandler handler;
+        private final int headroom;
+        private final boolean pooled;
+        private final ByteBuffer request;
+        private final ByteBuffer response;
+        private SocketAddress address;
+        private String trace;
+        private boolean failed;
+        private long receivedAt;
+        private long startedAt;
+        private long processedAt;
+
+        private Request(final EventLoop loop, final RequestHandler handler, final boolean pooled) {
+            this.loop = loop;
+            this.handler = handler;
+            this.pooled = pooled;
+            headroom = handler.headroom();
+            response = pooled
+                    ? ByteBuffer.allocateDirect(headroom + REQUEST_BUFFER_SIZE)
+                    : ByteBuffer.allocate(headroom + Utils.MAX_DATAGRAM_SIZE);
+            request = response.duplicate();
+        }
+
+        private void received(final SocketAddress address, final ByteBuffer datagram, final long receivedAt) {
+            this.address = address;
+            this.receivedAt = receivedAt;
+            request.clear().position(headroom);
+            request.put(datagram).limit(request.position()).position(headroom);
+        }
+
+        @Override
+        public void run() {
+            if (process()) {
+                complete();
+            }
+        }
+
+        /**
+         * Returns {@code true} if the response is completed synchronously.
+         * If the handler fails, the response is completed empty, so the loop drops the request.
+         */
+        private boolean process() {
+            startedAt = System.nanoTime();
+            try {
+                return handler.handle(request, response.clear(), this);
+            } catch (final RuntimeException e) {
+                loop.handlerFailed(e);
+                failed = true;
+                response.clear();
+                return true;
+            }
+        }
+
+        private void processed() {
+            processedAt = System.nanoTime();
+            response.flip();
+        }
+
+        @Override
+        public void complete() {
+            processed();
+            loop.respond(this);
+        }
+
+        private void discard() {
+            loop.rejected(this);
         }
-        Utils.shutDownExecutorService(workers, Utils.AWAIT_TIME_MILLISECONDS);
-        Utils.shutDownExecutorService(service, Utils.AWAIT_TIME_MILLISECONDS);
     }
 
-    private static class ResponseInfo {
-        private final String responseString;
-        private final SocketAddress address;
+    /**
+     * Requests of a single event loop, at most {@code capacity} free pooled requests are retained.
+     */
+    private static class RequestPool {
+        private final EventLoop loop;
+        private final RequestHandler handler;
+        private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+        private final Semaphore free;
 
-        public ResponseInfo(final String responseString, final SocketAddress address) {
-            this.responseString = responseString;
-            this.address = address;
+        private RequestPool(final EventLoop loop, final RequestHandler handler, final int capacity) {
+            this.loop = loop;
+            this.handler = handler;
+            free = new Semaphore(capacity);
         }
 
-        public String getResponseString() {
-            return responseString;
+        /**
+         * Returns a request fitting a datagram of the specified size.
+         */
+        private Request acquire(final int size) {
+            if (size > REQUEST_BUFFER_SIZE) {
+                return new Request(loop, handler, false);
+            }
+            final Request request = requests.poll();
+            if (request != null) {
+                free.release();
+                return request;
+            }
+            return new Request(loop, handler, true);
         }
 
-        public SocketAddress getAddress() {
-            return address;
+        private void release(final Request request) {
+            if (request.pooled && free.tryAcquire()) {
+                requests.add(request);
+            }
         }
     }
 
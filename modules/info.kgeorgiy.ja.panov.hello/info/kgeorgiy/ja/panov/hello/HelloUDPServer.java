@@ -1,56 +1,205 @@
 package info.kgeorgiy.ja.panov.hello;
 
-import info.kgeorgiy.java.advanced.hello.HelloServer;
-
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 public class HelloUDPServer extends AbstractHelloServer {
-    private DatagramSocket datagramSocket;
+    /**
+     * Handler latency is measured for one of this many requests of every thread, clock reads cost more than handling.
+     */
+    private static final int HANDLER_TIMING_SAMPLING = 16;
+
+    private final RequestHandler handler;
+    private final int sockets;
+    private final boolean virtualThreads;
+    private final List<DatagramSocket> datagramSockets = new ArrayList<>();
     private ExecutorService executorsPool;
 
+    public HelloUDPServer() {
+        this(true);
+    }
+
+    public HelloUDPServer(final boolean zeroCopy) {
+        this(zeroCopy, 1);
+    }
+
+    /**
+     * @param zeroCopy if {@code true}, every thread receives requests right after the response prefix
+     *                 in its own buffer and sends the buffer back, without decoding requests to strings.
+     *                 Otherwise, requests are decoded and responses are encoded as UTF-8 strings.
+     * @param sockets number of sockets bound to the same port with {@code SO_REUSEPORT},
+     *                threads are spread evenly between them and the kernel spreads requests between sockets.
+     *                No throughput gain was measured on a single-CPU host (see {@code HelloTests -sockets}),
+     *                more sockets may only help with more cores.
+     */
+    public HelloUDPServer(final boolean zeroCopy, final int sockets) {
+        this(zeroCopy, sockets, false);
+    }
+
+    /**
+     * @param zeroCopy see {@link #HelloUDPServer(boolean, int)}.
+     * @param sockets see {@link #HelloUDPServer(boolean, int)}.
+     * @param virtualThreads if {@code true}, workers are session threads (see {@link Utils#newSessionExecutor()})
+     *                       with buffers of the maximal datagram size, so a large number of workers is cheap.
+     */
+    public HelloUDPServer(final boolean zeroCopy, final int sockets, final boolean virtualThreads) {
+        this(sockets, virtualThreads, zeroCopy ? new HelloRequestHandler() : null);
+    }
+
+    /**
+     * @param handler handler of requests, every thread receives requests right after the handler headroom
+     *                of its own buffer and sends the response from the same buffer.
+     * @param sockets see {@link #HelloUDPServer(boolean, int)}.
+     * @param virtualThreads see {@link #HelloUDPServer(boolean, int, boolean)}.
+     */
+    public HelloUDPServer(final RequestHandler handler, final int sockets, final boolean virtualThreads) {
+        this(sockets, virtualThreads, Objects.requireNonNull(handler));
+    }
+
+    private HelloUDPServer(final int sockets, final boolean virtualThreads, final RequestHandler handler) {
+        if (sockets <= 0) {
+            throw new IllegalArgumentException("Number of sockets should be positive");
+        }
+        this.handler = handler;
+        this.sockets = sockets;
+        this.virtualThreads = virtualThreads;
+    }
+
     @Override
     public void start(int port, int threads) {
         final int receiveBufferSize;
         try {
-            datagramSocket = new DatagramSocket(port);
-            receiveBufferSize = datagramSocket.getReceiveBufferSize();
-        } catch (SocketException e) {
+            final int count = Math.min(sockets, threads);
+            for (int i = 0; i < count; i++) {
+                datagramSockets.add(count == 1 ? new DatagramSocket(port) : Utils.reusePortSocket(port));
+            }
+            receiveBufferSize = virtualThreads
+                    ? Utils.MAX_DATAGRAM_SIZE
+                    : datagramSockets.get(0).getReceiveBufferSize();
+        } catch (IOException e) {
             System.err.println("Error occurred while using datagram socket=[" + e.getMessage() + "]");
+            datagramSockets.forEach(DatagramSocket::close);
+            datagramSockets.clear();
             return;
         }
 
-        executorsPool = Executors.newFixedThreadPool(threads);
-        IntStream.range(0, threads).forEach(threadNum -> executorsPool.submit(() -> createTask(receiveBufferSize)));
+        executorsPool = virtualThreads ? Utils.newSessionExecutor() : Executors.newFixedThreadPool(threads);
+        IntStream.range(0, threads).forEach(threadNum -> {
+            final DatagramSocket datagramSocket = datagramSockets.get(threadNum % datagramSockets.size());
+            executorsPool.submit(handler != null
+                    ? () -> createHandlerTask(datagramSocket, receiveBufferSize)
+                    : () -> createTask(datagramSocket, receiveBufferSize));
+        });
     }
 
-    private void createTask(final int receiveBufferSize) {
-        final DatagramPacket responsePacket = new DatagramPacket(new byte[receiveBufferSize], receiveBufferSize);
-        final DatagramPacket requestPacket = new DatagramPacket(new byte[0], 0);
+    private void createTask(final DatagramSocket datagramSocket, final int receiveBufferSize) {
+        final byte[] receiveBuffer = new byte[receiveBufferSize];
+        final DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBufferSize);
         while (!Thread.interrupted() && !datagramSocket.isClosed()) {
             try {
-                final String receiveString = Utils.receive(datagramSocket, responsePacket, Utils.RESPONSE_PREFIX);
-                requestPacket.setSocketAddress(responsePacket.getSocketAddress());
-                responsePacket.setData(receiveString.getBytes(Utils.CHARSET));
-                datagramSocket.send(responsePacket);
+                packet.setData(receiveBuffer);
+                final String receiveString = Utils.receive(datagramSocket, packet, Utils.RESPONSE_PREFIX);
+                metrics.received();
+                packet.setData(receiveString.getBytes(Utils.CHARSET));
+                datagramSocket.send(packet);
+                metrics.sent();
             } catch (IOException ignore) {
-                // ignore
+                if (!datagramSocket.isClosed()) {
+                    metrics.receiveFailed();
+                }
+            }
+        }
+    }
+
+    private void createHandlerTask(final DatagramSocket datagramSocket, final int receiveBufferSize) {
+        final ServerMetrics.Recorder recorder = metrics.recorder();
+        try {
+            handleRequests(datagramSocket, receiveBufferSize, recorder);
+        } finally {
+            metrics.retire(recorder);
+        }
+    }
+
+    private void handleRequests(
+            final DatagramSocket datagramSocket,
+            final int receiveBufferSize,
+            final ServerMetrics.Recorder recorder
+    ) {
+        final int headroom = handler.headroom();
+        final byte[] buffer = new byte[headroom + receiveBufferSize];
+        final ByteBuffer request = ByteBuffer.wrap(buffer);
+        final ByteBuffer response = ByteBuffer.wrap(buffer);
+        final Semaphore completed = new Semaphore(0);
+        final RequestHandler.Completion completion = completed::release;
+        final DatagramPacket packet = new DatagramPacket(buffer, headroom, receiveBufferSize);
+        int handled = 0;
+        while (!Thread.interrupted() && !datagramSocket.isClosed()) {
+            try {
+                packet.setData(buffer, headroom, receiveBufferSize);
+                datagramSocket.receive(packet);
+            } catch (IOException ignore) {
+                if (!datagramSocket.isClosed()) {
+                    metrics.receiveFailed();
+                }
+                continue;
+            }
+            metrics.received();
+            request.clear().position(headroom).limit(headroom + packet.getLength());
+            final String trace = metrics.sample() ? ServerMetrics.traceText(request) : null;
+            final boolean timed = trace != null || handled++ % HANDLER_TIMING_SAMPLING == 0;
+            final long startedAt = timed ? System.nanoTime() : 0;
+            try {
+                if (!handler.handle(request, response.clear(), completion)) {
+                    completed.acquire();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                metrics.handlerFailed(e);
+                continue;
+            }
+            if (timed) {
+                final long handlerNanos = System.nanoTime() - startedAt;
+                recorder.record(ServerMetrics.Stage.HANDLER, handlerNanos);
+                if (trace != null) {
+                    metrics.trace(packet.getSocketAddress(), trace,
+                            ServerMetrics.traceText(response.duplicate().flip()), handlerNanos);
+                }
+            }
+            if (response.position() == 0) {
+                metrics.emptyResponse();
+                continue;
+            }
+            try {
+                packet.setData(buffer, 0, response.position());
+                datagramSocket.send(packet);
+                metrics.sent();
+            } catch (IOException ignore) {
+                if (!datagramSocket.isClosed()) {
+                    metrics.sendFailed();
+                }
             }
         }
     }
 
     @Override
     public void close() {
-        datagramSocket.close();
-        Utils.shutDownExecutorService(executorsPool, Utils.AWAIT_TIME_MILLISECONDS);
+        metrics.close();
+        datagramSockets.forEach(DatagramSocket::close);
+        if (executorsPool != null) {
+            Utils.shutDownExecutorService(executorsPool, Utils.AWAIT_TIME_MILLISECONDS);
+        }
     }
 
     public static void main(final String[] args) {
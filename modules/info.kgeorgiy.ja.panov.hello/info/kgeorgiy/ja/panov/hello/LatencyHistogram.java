@@ -0,0 +1,76 @@
+package info.kgeorgiy.ja.panov.hello;
+
+/**
+ * HDR-style log-linear histogram of non-negative values. Every power of two range is split into
+ * {@code 64} equal sub-buckets, so recorded values are reported with relative error below {@code 1.6%}.
+ * Recording is a couple of arithmetic operations and an array increment. Not thread-safe.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private final long[] counts = new long[LINEAR + (Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts[index(v)]++;
+        count++;
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Adds all values recorded by another histogram.
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns upper bound of the bucket containing specified quantile.
+     *
+     * @param quantile quantile in {@code [0, 1]}.
+     */
+    public long getPercentile(final double quantile) {
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return 0;
+    }
+
+    private static int index(final long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(final int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        final int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        final long mantissa = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
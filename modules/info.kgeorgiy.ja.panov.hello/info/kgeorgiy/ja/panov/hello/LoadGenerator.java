@@ -0,0 +1,262 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator mode of {@link HelloUDPNonblockingClient}.
+ * Every channel keeps up to {@code window} outstanding requests, requests are either sent at
+ * a constant total rate (open loop) or as soon as a window slot is free (closed loop).
+ * Latency is measured from the time a request was due, so a server falling behind
+ * the rate is not hidden by the generator waiting for free slots.
+ * Every channel retransmits requests after its own {@link RetransmissionTimer} timeout.
+ */
+class LoadGenerator {
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int READ_BATCH = 64;
+    private static final long CHECK_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String prefix;
+    private final int channels;
+    private final int window;
+    private final long intervalNanos;
+    private final long durationNanos;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(Utils.MAX_DATAGRAM_SIZE);
+    private final List<Flow> flows = new ArrayList<>();
+    private int nextFlow;
+    private long sent;
+    private long retransmits;
+    private long unexpected;
+
+    /**
+     * @param rate total requests per second or {@code 0} for closed loop.
+     */
+    LoadGenerator(final String prefix, final int channels, final int window, final int rate, final long durationMillis) {
+        if (channels <= 0 || window <= 0 || rate < 0 || durationMillis < 0) {
+            throw new IllegalArgumentException("Invalid load parameters");
+        }
+        this.prefix = prefix;
+        this.channels = channels;
+        this.window = window;
+        this.intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    }
+
+    public LoadReport run(final InetSocketAddress address) throws IOException {
+        try (final Selector selector = Selector.open()) {
+            try {
+                for (int i = 0; i < channels; i++) {
+                    final Flow flow = new Flow(i);
+                    flow.channel = Utils.createDatagramChannel(selector, SelectionKey.OP_READ, flow, ch -> ch.connect(address));
+                    flows.add(flow);
+                }
+                return generate(selector);
+            } finally {
+                flows.forEach(flow -> {
+                    if (flow.channel != null) {
+                        Utils.closeWithIgnore(flow.channel);
+                    }
+                });
+            }
+        }
+    }
+
+    private LoadReport generate(final Selector selector) throws IOException {
+        final long start = System.nanoTime();
+        final long end = start + durationNanos;
+        long nextSend = start;
+        long nextCheck = start + CHECK_PERIOD_NANOS;
+        while (true) {
+            final long now = System.nanoTime();
+            boolean saturated = false;
+            if (now < end) {
+                if (intervalNanos > 0) {
+                    for (Flow flow; nextSend <= now && (flow = freeFlow()) != null; nextSend += intervalNanos) {
+                        flow.send(nextSend, now);
+                    }
+                    saturated = nextSend <= now;
+                } else {
+                    for (final Flow flow : flows) {
+                        while (flow.inFlight < window) {
+                            flow.send(now, now);
+                        }
+                    }
+                }
+            } else if (inFlight() == 0 || now - end > DRAIN_NANOS) {
+                return report(now - start);
+            }
+            if (now >= nextCheck) {
+                for (final Flow flow : flows) {
+                    flow.retransmit(now);
+                }
+                nextCheck = now + CHECK_PERIOD_NANOS;
+            }
+
+            long wait = nextCheck - now;
+            if (now < end && intervalNanos > 0 && !saturated) {
+                wait = Math.min(wait, nextSend - now);
+            }
+            if (wait <= 0) {
+                selector.selectNow();
+            } else {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            }
+            Utils.iterateSelectedKeys(selector, key -> {
+                if (key.isReadable()) {
+                    ((Flow) key.attachment()).read();
+                }
+            });
+        }
+    }
+
+    private Flow freeFlow() {
+        for (int i = 0; i < flows.size(); i++) {
+            final Flow flow = flows.get(nextFlow);
+            nextFlow = (nextFlow + 1) % flows.size();
+            if (flow.inFlight < window) {
+                return flow;
+            }
+        }
+        return null;
+    }
+
+    private long inFlight() {
+        return flows.stream().mapToLong(flow -> flow.inFlight).sum();
+    }
+
+    private LoadReport report(final long elapsedNanos) {
+        return new LoadReport(
+                elapsedNanos, sent, retransmits, histogram.getCount(), unexpected, inFlight(),
+                histogram.getPercentile(0.5), histogram.getPercentile(0.99), histogram.getPercentile(0.999),
+                histogram.getMax()
+        );
+    }
+
+    private static void putDecimal(final ByteBuffer buffer, final long value) {
+        if (value >= 10) {
+            putDecimal(buffer, value / 10);
+        }
+        buffer.put((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Channel with its window of outstanding requests.
+     */
+    private class Flow {
+        private final byte[] requestPrefix;
+        private final ByteBuffer sendBuffer;
+        private final long[] slotSeq = new long[window];
+        private final long[] slotDue = new long[window];
+        private final long[] slotSent = new long[window];
+        private final boolean[] slotRetransmitted = new boolean[window];
+        private final RetransmissionTimer timer = new RetransmissionTimer(Utils.TIMEOUT_MILLISECONDS);
+        private DatagramChannel channel;
+        private long nextSeq;
+        private int inFlight;
+
+        private Flow(final int id) {
+            requestPrefix = (prefix + id + "_").getBytes(Utils.CHARSET);
+            sendBuffer = ByteBuffer.allocate(requestPrefix.length + 20);
+            Arrays.fill(slotSeq, -1);
+        }
+
+        private void send(final long due, final long now) throws IOException {
+            int slot = 0;
+            while (slotSeq[slot] >= 0) {
+                slot++;
+            }
+            slotSeq[slot] = nextSeq++;
+            slotDue[slot] = due;
+            slotRetransmitted[slot] = false;
+            inFlight++;
+            sent++;
+            transmit(slot, now);
+        }
+
+        private void transmit(final int slot, final long now) throws IOException {
+            slotSent[slot] = now;
+            sendBuffer.clear().put(requestPrefix);
+            putDecimal(sendBuffer, slotSeq[slot]);
+            try {
+                channel.write(sendBuffer.flip());
+            } catch (final PortUnreachableException ignore) {
+                // the request will be retransmitted
+            }
+        }
+
+        private void retransmit(final long now) throws IOException {
+            final long timeout = timer.getTimeoutNanos();
+            boolean expired = false;
+            for (int slot = 0; slot < window; slot++) {
+                if (slotSeq[slot] >= 0 && now - slotSent[slot] >= timeout) {
+                    retransmits++;
+                    slotRetransmitted[slot] = true;
+                    transmit(slot, now);
+                    expired = true;
+                }
+            }
+            if (expired) {
+                timer.backoff();
+            }
+        }
+
+        private void read() throws IOException {
+            for (int i = 0; i < READ_BATCH; i++) {
+                receiveBuffer.clear();
+                try {
+                    if (channel.read(receiveBuffer) == 0) {
+                        return;
+                    }
+                } catch (final PortUnreachableException ignore) {
+                    return;
+                }
+                final long now = System.nanoTime();
+                final int slot = find(parseSeq());
+                if (slot < 0) {
+                    unexpected++;
+                } else {
+                    histogram.record(now - slotDue[slot]);
+                    if (!slotRetransmitted[slot]) {
+                        timer.sample(now - slotSent[slot]);
+                    }
+                    slotSeq[slot] = -1;
+                    inFlight--;
+                }
+            }
+        }
+
+        private long parseSeq() {
+            long seq = 0;
+            long scale = 1;
+            int i = receiveBuffer.position() - 1;
+            for (; i >= 0; i--) {
+                final byte b = receiveBuffer.get(i);
+                if (b < '0' || b > '9' || scale > Long.MAX_VALUE / 10) {
+                    break;
+                }
+                seq += (b - '0') * scale;
+                scale *= 10;
+            }
+            return scale == 1 || i < 0 || receiveBuffer.get(i) != '_' ? -1 : seq;
+        }
+
+        private int find(final long seq) {
+            for (int slot = 0; seq >= 0 && slot < window; slot++) {
+                if (slotSeq[slot] == seq) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+}
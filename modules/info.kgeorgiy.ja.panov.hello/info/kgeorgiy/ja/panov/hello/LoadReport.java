@@ -0,0 +1,99 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of {@link HelloUDPNonblockingClient#load}. Latencies are in nanoseconds.
+ */
+public class LoadReport {
+    private final long elapsedNanos;
+    private final long sent;
+    private final long retransmits;
+    private final long received;
+    private final long unexpected;
+    private final long lost;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    LoadReport(
+            final long elapsedNanos,
+            final long sent,
+            final long retransmits,
+            final long received,
+            final long unexpected,
+            final long lost,
+            final long p50,
+            final long p99,
+            final long p999,
+            final long max
+    ) {
+        this.elapsedNanos = elapsedNanos;
+        this.sent = sent;
+        this.retransmits = retransmits;
+        this.received = received;
+        this.unexpected = unexpected;
+        this.lost = lost;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getRetransmits() {
+        return retransmits;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Returns number of duplicate, late or malformed responses.
+     */
+    public long getUnexpected() {
+        return unexpected;
+    }
+
+    /**
+     * Returns number of requests left without response.
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : received * 1e9 / elapsedNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50;
+    }
+
+    public long getP99Nanos() {
+        return p99;
+    }
+
+    public long getP999Nanos() {
+        return p999;
+    }
+
+    public long getMaxNanos() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%.0f responses/s in %dms: sent=%d retransmits=%d received=%d unexpected=%d lost=%d"
+                        + " p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+                getThroughput(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), sent, retransmits, received, unexpected,
+                lost, p50 / 1e6, p99 / 1e6, p999 / 1e6, max / 1e6
+        );
+    }
+}
@@ -0,0 +1,39 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Request handler of {@link HelloUDPServer} and {@link HelloUDPNonblockingServer}.
+ * Requests are received right after {@link #headroom()} reserved bytes of the response buffer,
+ * so responses may be built around requests in place, without copying.
+ */
+@FunctionalInterface
+public interface RequestHandler {
+    /**
+     * Returns number of bytes reserved in the response buffer before the request.
+     */
+    default int headroom() {
+        return 0;
+    }
+
+    /**
+     * Puts the response to the request into the response buffer, starting from its beginning.
+     * Both buffers share content, the request starts at {@link #headroom()} of the response buffer.
+     * Empty responses are not sent. Buffers may be used until the response is completed.
+     * If this method throws a runtime exception, the request is dropped and the completion should not be called.
+     *
+     * @param request request between position and limit.
+     * @param response response buffer with position {@code 0}, at least {@link #headroom()} bytes longer than the request.
+     * @param completion completion to call exactly once, from any thread, if this method returns {@code false}.
+     * @return {@code true} if the response is completed, {@code false} if it is completed asynchronously.
+     */
+    boolean handle(ByteBuffer request, ByteBuffer response, Completion completion);
+
+    /**
+     * Asynchronous completion of a response.
+     */
+    @FunctionalInterface
+    interface Completion {
+        void complete();
+    }
+}
@@ -0,0 +1,49 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timeout of a single channel as in TCP (RFC 6298): smoothed round-trip time
+ * and its variation are updated on every response, timeout is doubled on every loss up to {@code 3} s.
+ * Round-trip times of retransmitted requests are ambiguous and should not be sampled (Karn's algorithm),
+ * so the backed-off timeout is kept for the next requests until a response comes without retransmission:
+ * a link slower than the current timeout is eventually sampled instead of being retransmitted forever.
+ * Timeout is never below {@code 100} ms: spurious retransmissions caused by scheduling stalls
+ * cost more than waiting, since servers may treat a duplicate request as an error.
+ */
+class RetransmissionTimer {
+    private static final long MIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3);
+    private static final long CLOCK_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long smoothedRtt = -1;
+    private long rttVariation;
+    private long timeout;
+
+    RetransmissionTimer(final long initialTimeoutMillis) {
+        timeout = clamp(TimeUnit.MILLISECONDS.toNanos(initialTimeoutMillis));
+    }
+
+    public void sample(final long rttNanos) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rttNanos;
+            rttVariation = rttNanos / 2;
+        } else {
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rttNanos)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rttNanos) / 8;
+        }
+        timeout = clamp(smoothedRtt + Math.max(CLOCK_GRANULARITY_NANOS, 4 * rttVariation));
+    }
+
+    public void backoff() {
+        timeout = clamp(timeout * 2);
+    }
+
+    public long getTimeoutNanos() {
+        return timeout;
+    }
+
+    private static long clamp(final long nanos) {
+        return Math.max(MIN_TIMEOUT_NANOS, Math.min(MAX_TIMEOUT_NANOS, nanos));
+    }
+}
@@ -0,0 +1,473 @@
+package info.kgeorgiy.ja.panov.hello;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and per-stage latency histograms of a hello server.
+ * Counters are {@link LongAdder}s and every server thread records latencies into its own {@link Recorder},
+ * so metrics are always on. Latencies of stopped threads are merged into a single retired recorder. Sampled packet tracing is off by default.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    private static final int TRACE_BYTES = 64;
+
+    /**
+     * Stage of request processing. {@link HelloUDPServer} records sampled {@link #HANDLER} latency only.
+     */
+    public enum Stage {
+        /** From receiving to the start of handling. */
+        QUEUE,
+        /** Handling, including asynchronous completion. */
+        HANDLER,
+        /** From the end of handling to sending the response. */
+        RESPONSE,
+        /** From receiving to sending the response. */
+        TOTAL
+    }
+
+    private final String type;
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder emptyResponses = new LongAdder();
+    private final LongAdder requestsShed = new LongAdder();
+    private final LongAdder requestsRejected = new LongAdder();
+    private final LongAdder receiveErrors = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+    private final LongAdder selectorIterations = new LongAdder();
+    private final Set<Recorder> recorders = new HashSet<>();
+    private final Recorder retired = new Recorder();
+    private volatile LongSupplier queueDepth = () -> 0;
+    private volatile int traceSampling;
+    private ObjectName objectName;
+    private ScheduledExecutorService logger;
+
+    ServerMetrics(final String type) {
+        this.type = type;
+    }
+
+    void received() {
+        packetsReceived.increment();
+    }
+
+    void sent() {
+        packetsSent.increment();
+    }
+
+    /**
+     * Counts a request left without response since its handler produced an empty one.
+     */
+    void emptyResponse() {
+        emptyResponses.increment();
+    }
+
+    void shed() {
+        requestsShed.increment();
+    }
+
+    void rejected() {
+        requestsRejected.increment();
+    }
+
+    void receiveFailed() {
+        receiveErrors.increment();
+    }
+
+    void sendFailed() {
+        sendErrors.increment();
+    }
+
+    /**
+     * Counts a request dropped since its handler threw an exception, which is logged.
+     */
+    void handlerFailed(final RuntimeException e) {
+        handlerErrors.increment();
+        System.err.println(type + " request handler failed=[" + e + "]");
+    }
+
+    void selectorIteration() {
+        selectorIterations.increment();
+    }
+
+    void setQueueDepth(final LongSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Creates latency recorder for a single server thread.
+     */
+    Recorder recorder() {
+        final Recorder recorder = new Recorder();
+        synchronized (recorders) {
+            recorders.add(recorder);
+        }
+        return recorder;
+    }
+
+    /**
+     * Removes recorder of a stopped server thread, merging its latencies into the retired ones.
+     * Does nothing if the recorder is already removed.
+     */
+    void retire(final Recorder recorder) {
+        synchronized (recorders) {
+            if (recorders.remove(recorder)) {
+                retired.add(recorder);
+            }
+        }
+    }
+
+    /**
+     * Decides whether the next request should be traced.
+     */
+    boolean sample() {
+        final int sampling = traceSampling;
+        return sampling > 0 && ThreadLocalRandom.current().nextInt(sampling) == 0;
+    }
+
+    /**
+     * Returns text of a traced packet, at most {@value #TRACE_BYTES} bytes of it are decoded.
+     */
+    static String traceText(final ByteBuffer buffer) {
+        final ByteBuffer text = buffer.duplicate();
+        text.limit(Math.min(text.limit(), text.position() + TRACE_BYTES));
+        return Utils.CHARSET.decode(text) + (buffer.remaining() > TRACE_BYTES ? "..." : "");
+    }
+
+    void trace(final SocketAddress address, final String request, final String response, final long handlerNanos) {
+        System.out.printf("%s trace from=%s request=[%s] response=[%s] handler=%.1fus%n",
+                type, address, request, response, handlerNanos / 1e3);
+    }
+
+    public Snapshot snapshot() {
+        final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+        for (final Stage stage : Stage.values()) {
+            stages.put(stage, latencies(stage));
+        }
+        return new Snapshot(
+                packetsReceived.sum(), packetsSent.sum(), emptyResponses.sum(), requestsShed.sum(), requestsRejected.sum(),
+                receiveErrors.sum() + sendErrors.sum(), handlerErrors.sum(), selectorIterations.sum(), queueDepth.getAsLong(), stages
+        );
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server.
+     *
+     * @return name of the registered MBean.
+     * @throws JMException if registration failed.
+     */
+    public synchronized ObjectName register() throws JMException {
+        if (objectName == null) {
+            final ObjectName name = new ObjectName(
+                    "info.kgeorgiy.ja.panov.hello:type=" + type + ",id=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        return objectName;
+    }
+
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException ignore) {
+                // already unregistered
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Prints a line with packet rates since the previous line and current counters
+     * to {@link System#out} with the specified period, until {@link #stopLogging()}.
+     */
+    public synchronized void startLogging(final long periodMillis) {
+        if (logger != null) {
+            return;
+        }
+        logger = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, type + "-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Snapshot[] previous = {snapshot()};
+        logger.scheduleAtFixedRate(() -> {
+            final Snapshot current = snapshot();
+            System.out.println(type + " " + current.rates(previous[0], periodMillis) + " " + current);
+            previous[0] = current;
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopLogging() {
+        if (logger != null) {
+            logger.shutdownNow();
+            logger = null;
+        }
+    }
+
+    void close() {
+        stopLogging();
+        unregister();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getEmptyResponses() {
+        return emptyResponses.sum();
+    }
+
+    @Override
+    public long getRequestsShed() {
+        return requestsShed.sum();
+    }
+
+    @Override
+    public long getRequestsRejected() {
+        return requestsRejected.sum();
+    }
+
+    @Override
+    public long getReceiveErrors() {
+        return receiveErrors.sum();
+    }
+
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public long getHandlerErrors() {
+        return handlerErrors.sum();
+    }
+
+    @Override
+    public long getSelectorIterations() {
+        return selectorIterations.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    @Override
+    public double getQueueP99Micros() {
+        return percentileMicros(Stage.QUEUE, 0.99);
+    }
+
+    @Override
+    public double getHandlerP50Micros() {
+        return percentileMicros(Stage.HANDLER, 0.5);
+    }
+
+    @Override
+    public double getHandlerP99Micros() {
+        return percentileMicros(Stage.HANDLER, 0.99);
+    }
+
+    @Override
+    public double getTotalP50Micros() {
+        return percentileMicros(Stage.TOTAL, 0.5);
+    }
+
+    @Override
+    public double getTotalP99Micros() {
+        return percentileMicros(Stage.TOTAL, 0.99);
+    }
+
+    @Override
+    public int getTraceSampling() {
+        return traceSampling;
+    }
+
+    @Override
+    public void setTraceSampling(final int sampling) {
+        if (sampling < 0) {
+            throw new IllegalArgumentException("Trace sampling should be non-negative");
+        }
+        traceSampling = sampling;
+    }
+
+    private double percentileMicros(final Stage stage, final double quantile) {
+        return latencies(stage).getPercentile(quantile) / 1e3;
+    }
+
+    private LatencyHistogram latencies(final Stage stage) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        synchronized (recorders) {
+            retired.addTo(stage, histogram);
+            recorders.forEach(recorder -> recorder.addTo(stage, histogram));
+        }
+        return histogram;
+    }
+
+    /**
+     * Latency histograms of a single server thread, read by other threads under its lock.
+     * A histogram is allocated on the first latency of its stage.
+     */
+    static class Recorder {
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+
+        private Recorder() {
+        }
+
+        synchronized void record(final Stage stage, final long nanos) {
+            histogram(stage).record(nanos);
+        }
+
+        synchronized void record(final long queue, final long handler, final long response) {
+            histogram(Stage.QUEUE).record(queue);
+            histogram(Stage.HANDLER).record(handler);
+            histogram(Stage.RESPONSE).record(response);
+            histogram(Stage.TOTAL).record(queue + handler + response);
+        }
+
+        private LatencyHistogram histogram(final Stage stage) {
+            final int index = stage.ordinal();
+            if (latencies[index] == null) {
+                latencies[index] = new LatencyHistogram();
+            }
+            return latencies[index];
+        }
+
+        private synchronized void addTo(final Stage stage, final LatencyHistogram histogram) {
+            final LatencyHistogram latency = latencies[stage.ordinal()];
+            if (latency != null) {
+                histogram.add(latency);
+            }
+        }
+
+        private synchronized void add(final Recorder other) {
+            for (final Stage stage : Stage.values()) {
+                other.addTo(stage, histogram(stage));
+            }
+        }
+    }
+
+    public static class Snapshot {
+        private final long packetsReceived;
+        private final long packetsSent;
+        private final long emptyResponses;
+        private final long requestsShed;
+        private final long requestsRejected;
+        private final long ioErrors;
+        private final long handlerErrors;
+        private final long selectorIterations;
+        private final long queueDepth;
+        private final Map<Stage, LatencyHistogram> latencies;
+
+        private Snapshot(
+                final long packetsReceived,
+                final long packetsSent,
+                final long emptyResponses,
+                final long requestsShed,
+                final long requestsRejected,
+                final long ioErrors,
+                final long handlerErrors,
+                final long selectorIterations,
+                final long queueDepth,
+                final Map<Stage, LatencyHistogram> latencies
+        ) {
+            this.packetsReceived = packetsReceived;
+            this.packetsSent = packetsSent;
+            this.emptyResponses = emptyResponses;
+            this.requestsShed = requestsShed;
+            this.requestsRejected = requestsRejected;
+            this.ioErrors = ioErrors;
+            this.handlerErrors = handlerErrors;
+            this.selectorIterations = selectorIterations;
+            this.queueDepth = queueDepth;
+            this.latencies = latencies;
+        }
+
+        public long getPacketsReceived() {
+            return packetsReceived;
+        }
+
+        public long getPacketsSent() {
+            return packetsSent;
+        }
+
+        public long getEmptyResponses() {
+            return emptyResponses;
+        }
+
+        public long getRequestsShed() {
+            return requestsShed;
+        }
+
+        public long getRequestsRejected() {
+            return requestsRejected;
+        }
+
+        /**
+         * Returns total number of receive and send errors.
+         */
+        public long getIoErrors() {
+            return ioErrors;
+        }
+
+        public long getHandlerErrors() {
+            return handlerErrors;
+        }
+
+        public long getSelectorIterations() {
+            return selectorIterations;
+        }
+
+        public long getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * Returns latency of the specified stage in nanoseconds.
+         *
+         * @param quantile quantile in {@code [0, 1]}.
+         */
+        public long getLatencyPercentile(final Stage stage, final double quantile) {
+            return latencies.get(stage).getPercentile(quantile);
+        }
+
+        private String rates(final Snapshot previous, final long periodMillis) {
+            return String.format("rx=%.0f/s tx=%.0f/s",
+                    (packetsReceived - previous.packetsReceived) * 1000.0 / periodMillis,
+                    (packetsSent - previous.packetsSent) * 1000.0 / periodMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "received=%d sent=%d emptyResponses=%d shed=%d rejected=%d ioErrors=%d handlerErrors=%d selects=%d depth=%d "
+                            + "handler p50/p99=%.1f/%.1fus total p50/p99=%.1f/%.1fus",
+                    packetsReceived, packetsSent, emptyResponses, requestsShed, requestsRejected, ioErrors, handlerErrors,
+                    selectorIterations, queueDepth,
+                    getLatencyPercentile(Stage.HANDLER, 0.5) / 1e3, getLatencyPercentile(Stage.HANDLER, 0.99) / 1e3,
+                    getLatencyPercentile(Stage.TOTAL, 0.5) / 1e3, getLatencyPercentile(Stage.TOTAL, 0.99) / 1e3
+            );
+        }
+    }
+}
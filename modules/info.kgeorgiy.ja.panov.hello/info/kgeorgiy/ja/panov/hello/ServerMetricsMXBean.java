@@ -0,0 +1,43 @@
+package info.kgeorgiy.ja.panov.hello;
+
+/**
+ * JMX view of {@link ServerMetrics}. Latencies are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+    long getPacketsReceived();
+
+    long getPacketsSent();
+
+    long getEmptyResponses();
+
+    long getRequestsShed();
+
+    long getRequestsRejected();
+
+    long getReceiveErrors();
+
+    long getSendErrors();
+
+    long getHandlerErrors();
+
+    long getSelectorIterations();
+
+    long getQueueDepth();
+
+    double getQueueP99Micros();
+
+    double getHandlerP50Micros();
+
+    double getHandlerP99Micros();
+
+    double getTotalP50Micros();
+
+    double getTotalP99Micros();
+
+    /**
+     * Returns {@code n} if one of {@code n} requests is traced on average, {@code 0} if tracing is off.
+     */
+    int getTraceSampling();
+
+    void setTraceSampling(int sampling);
+}
@@ -9,6 +9,7 @@ import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
@@ -20,18 +21,20 @@ import java.util.Iterator;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Utils {
     public static final Charset CHARSET = StandardCharsets.UTF_8;
     public static int TIMEOUT_MILLISECONDS = 300;
     public static final int AWAIT_TIME_MILLISECONDS = 100;
     public static final String RESPONSE_PREFIX = "Hello, ";
-    private static final Pattern VALIDATE_PATTERN = Pattern.compile("(\\D*)(\\d+)(\\D+)(\\d+)(\\D*)");
+    public static final int MAX_DATAGRAM_SIZE = 65_507;
+    private static final long SESSION_STACK_SIZE = 256 * 1024;
+    private static final ThreadFactory SESSION_THREAD_FACTORY = createSessionThreadFactory();
 
     public static String packetToString(final DatagramPacket packet) {
         return new String(packet.getData(), packet.getOffset(), packet.getLength(), CHARSET);
@@ -44,6 +47,37 @@ public class Utils {
         return prefix + Utils.packetToString(responsePacket);
     }
 
+    /**
+     * Creates a datagram socket bound to the specified port with {@code SO_REUSEPORT} enabled.
+     */
+    public static DatagramSocket reusePortSocket(final int port) throws IOException {
+        final DatagramSocket socket = new DatagramSocket(null);
+        try {
+            if (!socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                throw new IOException("SO_REUSEPORT is not supported");
+            }
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            socket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Binds the datagram channel to the specified port, enabling {@code SO_REUSEPORT} if required.
+     */
+    public static void bind(final DatagramChannel channel, final int port, final boolean reusePort) throws IOException {
+        if (reusePort) {
+            if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                throw new IOException("SO_REUSEPORT is not supported");
+            }
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        channel.bind(new InetSocketAddress(port));
+    }
+
     public static void shutDownExecutorService(final ExecutorService executorService, final long awaitTimeMilliseconds) {
         executorService.shutdown();
         try {
@@ -58,11 +92,72 @@ public class Utils {
         }
     }
 
-    public static boolean validateReceive(final String receive, final int threadNum, final int requestNum) {
-        Matcher matcher = VALIDATE_PATTERN.matcher(receive);
-        return matcher.matches() &&
-                matcher.group(2).equals(Integer.toString(threadNum)) &&
-                matcher.group(4).equals(Integer.toString(requestNum));
+    /**
+     * Creates executor running every task in its own session thread. Session threads are virtual
+     * if the runtime supports them (Java 21+), otherwise they are daemon platform threads with small stacks.
+     */
+    public static ExecutorService newSessionExecutor() {
+        return Executors.newCachedThreadPool(SESSION_THREAD_FACTORY);
+    }
+
+    private static ThreadFactory createSessionThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (final ReflectiveOperationException ignore) {
+            return task -> {
+                final Thread thread = new Thread(null, task, "hello-session", SESSION_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Checks that the response between position and limit of the buffer contains exactly two numbers,
+     * equal to the specified thread and request numbers, as {@code (\D*)(\d+)(\D+)(\d+)(\D*)}
+     * matched against the decoded response does. Only ASCII digits are digits for that pattern,
+     * and no byte of a multibyte UTF-8 character is an ASCII digit, so the bytes are scanned directly.
+     * Buffer position is not changed.
+     */
+    public static boolean validateResponse(final ByteBuffer buffer, final int threadNum, final int requestNum) {
+        final int limit = buffer.limit();
+        int numbers = 0;
+        int i = buffer.position();
+        while (i < limit) {
+            if (!isDigit(buffer.get(i))) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < limit && isDigit(buffer.get(end))) {
+                end++;
+            }
+            if (numbers == 2 || !isNumber(buffer, i, end, numbers == 0 ? threadNum : requestNum)) {
+                return false;
+            }
+            numbers++;
+            i = end;
+        }
+        return numbers == 2;
+    }
+
+    private static boolean isDigit(final byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    private static boolean isNumber(final ByteBuffer buffer, final int from, final int to, final int expected) {
+        if (to - from > 1 && buffer.get(from) == '0') {
+            return false;
+        }
+        int rest = expected;
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) - '0' != rest % 10) {
+                return false;
+            }
+            rest /= 10;
+        }
+        return rest == 0;
     }
 
     public static String requestString(final String prefix, final int threadNumber, final int requestNumber) {
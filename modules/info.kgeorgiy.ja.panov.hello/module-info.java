@@ -1,4 +1,9 @@
 module info.kgeorgiy.ja.panov.hello {
     requires info.kgeorgiy.java.advanced.hello;
+    requires java.management;
+    requires junit;
+
     exports info.kgeorgiy.ja.panov.hello;
-}
\ No newline at end of file
+
+    opens info.kgeorgiy.ja.panov.hello to junit;
+}